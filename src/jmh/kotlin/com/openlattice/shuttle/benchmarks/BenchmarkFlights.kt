@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import com.dataloom.mappers.ObjectMappers
+import com.google.common.io.Resources
+import com.openlattice.client.RetrofitFactory
+import com.openlattice.shuttle.CompiledAssociationDefinition
+import com.openlattice.shuttle.CompiledEntityDefinition
+import com.openlattice.shuttle.CompiledFlight
+import com.openlattice.shuttle.CompiledPropertyDefinition
+import com.openlattice.shuttle.EntityDefinition
+import com.openlattice.shuttle.Flight
+import com.openlattice.shuttle.MissionParameters
+import com.openlattice.shuttle.Shuttle
+import com.openlattice.shuttle.destinations.StorageDestination
+import com.openlattice.shuttle.logs.Blackbox
+import com.openlattice.shuttle.payload.SyntheticColumn
+import com.openlattice.shuttle.payload.SyntheticPayload
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import java.util.*
+
+/**
+ * Flights and rows shared by the benchmarks.
+ *
+ * Flights are read from the test flights in `src/test/resources/flights` and compiled against made up ids, so the
+ * benchmarks need neither a server nor an EDM.
+ */
+object BenchmarkFlights {
+    const val SERIALIZER_FLIGHT = "flights/flight_serializer.yaml"
+
+    /**
+     * Columns read by the test flights.
+     */
+    val columns = SyntheticColumn.parse("algo:string:16:8,mode:string:4:3,keySize:integer:8")
+
+    fun load(resource: String): Flight {
+        return ObjectMappers.getYamlMapper().readValue(Resources.getResource(resource), Flight::class.java)
+    }
+
+    fun rows(count: Int): List<Map<String, Any?>> {
+        return SyntheticPayload(columns, count.toLong()).getPayload().toList()
+    }
+
+    /**
+     * Compiles [flight] with a random id for every entity set and property type. Every property is a string and
+     * every property of an entity is part of its key.
+     */
+    fun compile(flight: Flight): CompiledFlight {
+        val propertyTypeIds = mutableMapOf<FullQualifiedName, UUID>()
+
+        fun compileDefinition(definition: EntityDefinition): CompiledEntityDefinition {
+            val properties = definition.properties.map { property ->
+                CompiledPropertyDefinition(
+                        property,
+                        propertyTypeIds.getOrPut(property.fullQualifiedName) { UUID.randomUUID() },
+                        EdmPrimitiveTypeKind.String,
+                        StorageDestination.NO_OP,
+                        false
+                )
+            }.toTypedArray()
+            val key = properties.mapTo(LinkedHashSet()) { it.propertyTypeId }
+            return CompiledEntityDefinition(definition, UUID.randomUUID(), Collections.unmodifiableSet(key), properties)
+        }
+
+        val entityDefinitions = flight.entities.toList()
+        val aliasIndices = entityDefinitions.mapIndexed { index, definition -> definition.alias to index }.toMap()
+        return CompiledFlight(
+                flight,
+                entityDefinitions.map(::compileDefinition).toTypedArray(),
+                flight.associations.map { association ->
+                    CompiledAssociationDefinition(
+                            compileDefinition(association),
+                            aliasIndices.getValue(association.srcAlias),
+                            aliasIndices.getValue(association.dstAlias)
+                    )
+                }.toTypedArray()
+        )
+    }
+
+    /**
+     * A shuttle with an empty flight plan, only good for calling into its transformation code.
+     */
+    fun shuttle(): Shuttle {
+        return Shuttle(
+                RetrofitFactory.Environment.LOCAL,
+                false,
+                mapOf(),
+                mapOf(),
+                mapOf(),
+                mapOf(),
+                mapOf(),
+                null,
+                mapOf(),
+                MissionParameters.empty(),
+                StorageDestination.REST,
+                Blackbox.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                null,
+                null
+        )
+    }
+}
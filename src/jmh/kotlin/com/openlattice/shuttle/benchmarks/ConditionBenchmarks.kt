@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import conditions.BooleanIsNullCondition
+import conditions.BooleanRegexCondition
+import conditions.CompareCondition
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Conditions evaluated for every row by flights that filter rows, entities or associations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ConditionBenchmarks {
+    private val row = mapOf("algo" to "AES", "mode" to "CTR", "keySize" to "256", "minimumKeySize" to "128")
+    private val regex = BooleanRegexCondition("algo", "^(AES|DES)$", false)
+    private val isNull = BooleanIsNullCondition("mode", false)
+    private val compare = CompareCondition("keySize", listOf(), "minimumKeySize", listOf(), CompareCondition.Comparison.ge)
+
+    @Benchmark
+    fun regex(): Boolean {
+        return regex.apply(row)
+    }
+
+    @Benchmark
+    fun isNull(): Boolean {
+        return isNull.apply(row)
+    }
+
+    @Benchmark
+    fun compare(): Boolean {
+        return compare.apply(row)
+    }
+}
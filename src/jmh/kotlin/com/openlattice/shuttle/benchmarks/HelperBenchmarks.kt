@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import com.openlattice.shuttle.dates.DateTimeHelper
+import com.openlattice.shuttle.util.Cached
+import com.openlattice.shuttle.util.Parsers
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The parsing and lookup helpers that transforms call for every value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class HelperBenchmarks {
+    private val dateTimeHelper = DateTimeHelper(TimeZone.getTimeZone("America/New_York"), "MM/dd/yyyy", "yyyy-MM-dd")
+    private val uuid = UUID.randomUUID().toString()
+
+    @Benchmark
+    fun parseInt(): Int? {
+        return Parsers.parseInt("123456")
+    }
+
+    @Benchmark
+    fun parseDouble(): Double? {
+        return Parsers.parseDouble("1234.56")
+    }
+
+    @Benchmark
+    fun parseBoolean(): Boolean? {
+        return Parsers.parseBoolean("true")
+    }
+
+    @Benchmark
+    fun parseUUID(): UUID? {
+        return Parsers.parseUUID(uuid)
+    }
+
+    @Benchmark
+    fun parseDateFirstPattern(): String? {
+        return dateTimeHelper.parseDate("06/15/1987")
+    }
+
+    @Benchmark
+    fun parseDateLastPattern(): String? {
+        return dateTimeHelper.parseDate("1987-06-15")
+    }
+
+    @Benchmark
+    fun parseDateTime(): String? {
+        return dateTimeHelper.parse("1987-06-15")
+    }
+
+    @Benchmark
+    fun cachedMatcher(): Boolean {
+        return Cached.getMatcherForString("AES-256-CTR", "^[A-Z]+-\\d+-[A-Z]+$").matches()
+    }
+
+    @Benchmark
+    fun cachedInsensitiveMatcher(): Boolean {
+        return Cached.getInsensitiveMatcherForString("aes-256-ctr", "^[A-Z]+-\\d+-[A-Z]+$").matches()
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import com.openlattice.shuttle.destinations.StatementBatcher
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.lang.reflect.Proxy
+import java.sql.PreparedStatement
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Row rate and round trips of the property value upserts in PostgresDestination, flushing every statement after each
+ * entity as it used to versus batching across the whole partition.
+ *
+ * Statements are stand-ins that park for [roundTripMicros] on every executeBatch, so the results only restate the
+ * number of round trips times the simulated latency and say nothing about what postgres spends parsing, planning and
+ * writing the rows. [PostgresDatabaseBatchingBenchmarks] runs the same comparison against a real database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class PostgresBatchingBenchmarks {
+    @Param("1000", "10000")
+    var entities = 0
+
+    @Param("5")
+    var propertyTypes = 0
+
+    @Param("200")
+    var roundTripMicros = 0L
+
+    @Param("10000")
+    var maxStatementsPerBatch = 0
+
+    private lateinit var statements: List<PreparedStatement>
+
+    /**
+     * Rows bound per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    open class Rows {
+        @JvmField
+        var rows = 0L
+
+        @Setup(Level.Iteration)
+        fun reset() {
+            rows = 0
+        }
+    }
+
+    /**
+     * Round trips, in total per iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    open class RoundTrips {
+        @JvmField
+        var roundTrips = 0L
+
+        @Setup(Level.Iteration)
+        fun reset() {
+            roundTrips = 0
+        }
+    }
+
+    @Setup
+    fun setup() {
+        statements = List(propertyTypes) { statement(roundTripMicros) }
+    }
+
+    @Benchmark
+    fun perEntityFlush(rows: Rows, roundTrips: RoundTrips) {
+        repeat(entities) {
+            statements.forEach { it.addBatch() }
+            statements.forEach { it.executeBatch() }
+            roundTrips.roundTrips += statements.size
+        }
+        rows.rows += entities.toLong() * statements.size
+    }
+
+    @Benchmark
+    fun crossEntityBatching(rows: Rows, roundTrips: RoundTrips) {
+        val batcher = StatementBatcher(maxStatementsPerBatch)
+        repeat(entities) {
+            statements.forEach(batcher::add)
+        }
+        batcher.flush()
+        roundTrips.roundTrips += batcher.roundTrips
+        rows.rows += entities.toLong() * statements.size
+    }
+}
+
+private fun statement(roundTripMicros: Long): PreparedStatement {
+    var pending = 0
+    return Proxy.newProxyInstance(
+            PreparedStatement::class.java.classLoader,
+            arrayOf(PreparedStatement::class.java)
+    ) { _, method, _ ->
+        when (method.name) {
+            "addBatch" -> {
+                pending++
+                null
+            }
+            "executeBatch" -> {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros))
+                IntArray(pending) { 1 }.also { pending = 0 }
+            }
+            else -> throw UnsupportedOperationException(method.name)
+        }
+    } as PreparedStatement
+}
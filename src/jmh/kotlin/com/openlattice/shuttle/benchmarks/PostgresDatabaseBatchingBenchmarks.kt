@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import com.openlattice.shuttle.destinations.StatementBatcher
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+const val JDBC_URL_PROPERTY = "shuttle.benchmark.jdbcUrl"
+
+/**
+ * The comparison of [PostgresBatchingBenchmarks] against a real postgres, upserting into a temporary table shaped like
+ * the key and conflict handling of the data table.
+ *
+ * Only runs when a database is given, either with ./gradlew jmh -PbenchmarkJdbcUrl=jdbc:postgresql://... or the
+ * [JDBC_URL_PROPERTY] system property. Credentials go in the url.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class PostgresDatabaseBatchingBenchmarks {
+    @Param("1000", "10000")
+    var entities = 0
+
+    @Param("5")
+    var propertyTypes = 0
+
+    @Param("10000")
+    var maxStatementsPerBatch = 0
+
+    private lateinit var connection: Connection
+    private lateinit var statements: List<PreparedStatement>
+
+    @Setup
+    fun setup() {
+        val jdbcUrl = System.getProperty(JDBC_URL_PROPERTY)
+        check(!jdbcUrl.isNullOrBlank()) { "Set $JDBC_URL_PROPERTY to the postgres to benchmark against." }
+
+        connection = DriverManager.getConnection(jdbcUrl)
+        connection.createStatement().use {
+            it.execute(
+                    "CREATE TEMPORARY TABLE shuttle_benchmark (" +
+                            "id uuid, property_type_id uuid, value text, version bigint, " +
+                            "PRIMARY KEY (id, property_type_id))"
+            )
+        }
+        statements = List(propertyTypes) {
+            connection.prepareStatement(
+                    "INSERT INTO shuttle_benchmark VALUES (?,'${UUID.randomUUID()}',?,?) " +
+                            "ON CONFLICT (id, property_type_id) DO UPDATE SET " +
+                            "value = EXCLUDED.value, version = GREATEST(shuttle_benchmark.version, EXCLUDED.version)"
+            )
+        }
+    }
+
+    @Setup(Level.Iteration)
+    fun truncate() {
+        connection.createStatement().use { it.execute("TRUNCATE shuttle_benchmark") }
+    }
+
+    @TearDown
+    fun tearDown() {
+        statements.forEach { it.close() }
+        connection.close()
+    }
+
+    @Benchmark
+    fun perEntityFlush(rows: PostgresBatchingBenchmarks.Rows, roundTrips: PostgresBatchingBenchmarks.RoundTrips) {
+        val version = System.currentTimeMillis()
+        repeat(entities) {
+            val id = UUID.randomUUID()
+            statements.forEach {
+                bind(it, id, version)
+                it.addBatch()
+            }
+            statements.forEach { it.executeBatch() }
+            roundTrips.roundTrips += statements.size
+        }
+        rows.rows += entities.toLong() * statements.size
+    }
+
+    @Benchmark
+    fun crossEntityBatching(rows: PostgresBatchingBenchmarks.Rows, roundTrips: PostgresBatchingBenchmarks.RoundTrips) {
+        val version = System.currentTimeMillis()
+        val batcher = StatementBatcher(maxStatementsPerBatch)
+        repeat(entities) {
+            val id = UUID.randomUUID()
+            statements.forEach {
+                bind(it, id, version)
+                batcher.add(it)
+            }
+        }
+        batcher.flush()
+        roundTrips.roundTrips += batcher.roundTrips
+        rows.rows += entities.toLong() * statements.size
+    }
+
+    private fun bind(statement: PreparedStatement, id: UUID, version: Long) {
+        statement.setObject(1, id)
+        statement.setString(2, id.toString())
+        statement.setLong(3, version)
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmarks
+
+import com.openlattice.ApiHelpers
+import com.openlattice.shuttle.CompiledFlight
+import com.openlattice.shuttle.Shuttle
+import com.openlattice.shuttle.destinations.AddressedDataHolder
+import com.openlattice.shuttle.ids.DefaultEntityIdBuilder
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Transforming rows into entities and associations, per row and for whole batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TransformBenchmarks {
+    @JvmField
+    @Param("1000", "10000")
+    var batchSize: Int = 0
+
+    private lateinit var shuttle: Shuttle
+    private lateinit var compiledFlight: CompiledFlight
+    private lateinit var batch: List<Map<String, Any?>>
+    private lateinit var row: Map<String, Any?>
+    private lateinit var generator: (Map<String, Any?>) -> String
+    private lateinit var key: Set<UUID>
+    private lateinit var properties: Map<UUID, Set<Any>>
+    private val defaultEntityIds = DefaultEntityIdBuilder(0)
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        shuttle = BenchmarkFlights.shuttle()
+        val flight = BenchmarkFlights.load(BenchmarkFlights.SERIALIZER_FLIGHT)
+        compiledFlight = BenchmarkFlights.compile(flight)
+        batch = BenchmarkFlights.rows(batchSize)
+        row = batch.first()
+
+        val transformSeries = flight.entities.first { it.generator.isPresent }.generator.get()
+        generator = { transformSeries.apply(it) }
+
+        key = linkedSetOf(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID())
+        properties = key.mapIndexed { index, propertyTypeId -> propertyTypeId to setOf<Any>("value-$index") }.toMap()
+    }
+
+    @Benchmark
+    fun impulse(): AddressedDataHolder {
+        return shuttle.impulse(compiledFlight, batch, 0)
+    }
+
+    @Benchmark
+    fun impulseRow(): AddressedDataHolder {
+        return shuttle.impulse(compiledFlight, listOf(row), 0)
+    }
+
+    @Benchmark
+    fun defaultEntityId(): String {
+        return ApiHelpers.generateDefaultEntityId(key, properties)
+    }
+
+    @Benchmark
+    fun defaultEntityIdBuilder(): String {
+        return defaultEntityIds.build(key, properties)
+    }
+
+    @Benchmark
+    fun transformSeriesGenerator(): String {
+        return generator(row)
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle
+
+import com.openlattice.client.RetrofitFactory
+import com.openlattice.edm.EntitySet
+import com.openlattice.edm.type.EntityType
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.shuttle.destinations.StorageDestination
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import java.util.*
+
+/**
+ * A [Flight] with all of its EDM lookups resolved ahead of time.
+ *
+ * Entity sets, key sets, property type ids, datatypes and storage destinations are looked up once when the flight is
+ * compiled, so transforming a row never has to hash an entity set name or a property FQN. Association endpoints are
+ * resolved to indices into [entities].
+ */
+class CompiledFlight(
+        val flight: Flight,
+        val entities: Array<CompiledEntityDefinition>,
+        val associations: Array<CompiledAssociationDefinition>
+) {
+    companion object {
+        @JvmStatic
+        fun compile(
+                flight: Flight,
+                entitySets: Map<String, EntitySet>,
+                entityTypes: Map<UUID, EntityType>,
+                propertyTypes: Map<FullQualifiedName, PropertyType>,
+                binaryDestination: StorageDestination,
+                defaultDestination: StorageDestination,
+                environment: RetrofitFactory.Environment
+        ): CompiledFlight {
+            fun compileDefinition(definition: EntityDefinition): CompiledEntityDefinition {
+                val entitySet = entitySets.getValue(definition.entitySetName)
+                val properties = definition.properties.map { propertyDefinition ->
+                    val propertyType = propertyTypes.getValue(propertyDefinition.fullQualifiedName)
+                    val storageDestination = if (definition.associateOnly) {
+                        StorageDestination.NO_OP
+                    } else {
+                        propertyDefinition.storageDestination.orElseGet {
+                            when (propertyType.datatype) {
+                                EdmPrimitiveTypeKind.Binary -> binaryDestination
+                                else -> defaultDestination
+                            }
+                        }
+                    }
+                    CompiledPropertyDefinition(
+                            propertyDefinition,
+                            propertyType.id,
+                            propertyType.datatype,
+                            storageDestination,
+                            propertyType.datatype == EdmPrimitiveTypeKind.Binary
+                                    && storageDestination == StorageDestination.REST
+                                    && environment == RetrofitFactory.Environment.LOCAL
+                    )
+                }.toTypedArray()
+
+                return CompiledEntityDefinition(
+                        definition,
+                        entitySet.id,
+                        entityTypes.getValue(entitySet.entityTypeId).key,
+                        properties
+                )
+            }
+
+            val entityDefinitions = flight.entities.toList()
+            val entities = entityDefinitions.map(::compileDefinition).toTypedArray()
+            val aliasIndices = entityDefinitions.mapIndexed { index, definition -> definition.alias to index }.toMap()
+
+            val associations = flight.associations.map { associationDefinition ->
+                val src = checkNotNull(aliasIndices[associationDefinition.srcAlias]) {
+                    "Source ${associationDefinition.srcAlias} cannot be found to construct association " +
+                            associationDefinition.alias
+                }
+                val dst = checkNotNull(aliasIndices[associationDefinition.dstAlias]) {
+                    "Destination ${associationDefinition.dstAlias} cannot be found to construct association " +
+                            associationDefinition.alias
+                }
+                CompiledAssociationDefinition(compileDefinition(associationDefinition), src, dst)
+            }.toTypedArray()
+
+            return CompiledFlight(flight, entities, associations)
+        }
+    }
+}
+
+/**
+ * @param key The ordered key property type ids of the entity type. This is the unmodifiable linked hash set returned
+ * by [EntityType.key], so iteration order is stable for default entity id generation.
+ */
+class CompiledEntityDefinition(
+        val definition: EntityDefinition,
+        val entitySetId: UUID,
+        val key: Set<UUID>,
+        val properties: Array<CompiledPropertyDefinition>
+)
+
+/**
+ * @param src Index of the source entity definition in [CompiledFlight.entities].
+ * @param dst Index of the destination entity definition in [CompiledFlight.entities].
+ */
+class CompiledAssociationDefinition(
+        val entity: CompiledEntityDefinition,
+        val src: Int,
+        val dst: Int
+)
+
+/**
+ * @param encodeBinary Whether values have to be wrapped as base64 content for the REST api in local environments.
+ */
+class CompiledPropertyDefinition(
+        val definition: PropertyDefinition,
+        val propertyTypeId: UUID,
+        val datatype: EdmPrimitiveTypeKind,
+        val storageDestination: StorageDestination,
+        val encodeBinary: Boolean
+)
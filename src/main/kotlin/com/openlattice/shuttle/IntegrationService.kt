@@ -23,10 +23,12 @@ import com.openlattice.edm.type.EntityType
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.hazelcast.HazelcastQueue
 import com.openlattice.hazelcast.processors.shuttle.UpdateIntegrationEntryProcessor
+import com.openlattice.shuttle.checkpoint.HazelcastCheckpointStore
 import com.openlattice.shuttle.logs.Blackbox
 import com.openlattice.hazelcast.mapstores.shuttle.INTEGRATION_STATUS
 import com.openlattice.shuttle.payload.JdbcPayload
 import com.openlattice.shuttle.payload.Payload
+import com.openlattice.shuttle.pipeline.ExecutionRuntime
 import com.zaxxer.hikari.HikariConfig
 import com.zaxxer.hikari.HikariDataSource
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
@@ -50,6 +52,12 @@ private const val readRateLimit = 1_000
 private const val uploadBatchSize = 10_000
 private val threadCount = 2 * Runtime.getRuntime().availableProcessors()
 
+/**
+ * Up to [threadCount] jobs run at once and share one execution runtime. Unless configured otherwise, a job may only use
+ * a quarter of each pool, so that a large job cannot starve the jobs running next to it.
+ */
+private const val defaultJobShare = 0.25
+
 private lateinit var logEntityType: EntityType
 private lateinit var httpClient: OkHttpClient
 
@@ -72,6 +80,7 @@ class IntegrationService(
     private val jobQueue = HazelcastQueue.QUEUED_INTEGRATION_JOBS.getQueue(hazelcastInstance)
     private val semaphore = Semaphore(threadCount)
     private val executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount))
+    private val runtime = ExecutionRuntime.fromParameters(missionParameters, defaultJobShare)
     private val statusPredicate = Predicates.or<UUID, IntegrationJob>(
             Predicates.equal<UUID, IntegrationJob>(INTEGRATION_STATUS, IntegrationStatus.IN_PROGRESS),
             Predicates.equal<UUID, IntegrationJob>(INTEGRATION_STATUS, IntegrationStatus.QUEUED)
@@ -160,7 +169,12 @@ class IntegrationService(
             awsDataSinkService.generatePresignedUrls(it, propertyTypesByEntitySetId)
         }
 
-        val destinationsMap = generateDestinationsMap(integration, missionParameters, generatePresignedUrlsFun)
+        val destinationsMap = generateDestinationsMap(
+                integrationJob.integrationName,
+                integration,
+                missionParameters,
+                generatePresignedUrlsFun
+        )
 
         val shuttle = Shuttle(
                 integration.environment,
@@ -178,7 +192,11 @@ class IntegrationService(
                 Optional.of(entitySets.getValue(integration.logEntitySetId.get())),
                 Optional.of(jobId),
                 idService,
-                hazelcastInstance
+                hazelcastInstance,
+                HazelcastCheckpointStore(hazelcastInstance, jobId),
+                // Requeued jobs only pick up where they left off in queries with an ORDER BY, see Payload.isOrdered
+                flightPlan.values.any { it.isOrdered },
+                runtime = runtime
         )
 
         executor.submit {
@@ -260,19 +278,22 @@ class IntegrationService(
     }
 
     private fun generateDestinationsMap(
+            integrationName: String,
             integration: Integration,
             missionParameters: MissionParameters,
             generatePresignedUrlsFun: (List<S3EntityData>) -> List<String>
     ): Map<StorageDestination, IntegrationDestination> {
         val s3BucketUrl = integration.s3bucket
-        val dstDataSource = HikariDataSource(HikariConfig(missionParameters.postgres.config))
+        val dstDataSource = PostgresDestination.dataSource(missionParameters.postgres.config)
         integration.maxConnections.ifPresent { dstDataSource.maximumPoolSize = it }
 
         val pgDestination = PostgresDestination(
                 entitySets.mapKeys { it.value.id },
                 entityTypes,
                 propertyTypes.mapKeys { it.value.id },
-                dstDataSource
+                dstDataSource,
+                missionParameters.postgresDestination.forIntegration(integrationName),
+                runtime
         )
 
         if (s3BucketUrl.isBlank()) {
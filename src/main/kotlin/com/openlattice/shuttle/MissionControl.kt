@@ -36,11 +36,13 @@ import com.openlattice.retrofit.RhizomeByteConverterFactory
 import com.openlattice.retrofit.RhizomeCallAdapterFactory
 import com.openlattice.retrofit.RhizomeJacksonConverterFactory
 import com.openlattice.retrofit.RhizomeRetrofitCallException
+import com.openlattice.shuttle.benchmark.StubEntityKeyIdService
+import com.openlattice.shuttle.checkpoint.CheckpointStore
+import com.openlattice.shuttle.checkpoint.NoOpCheckpointStore
 import com.openlattice.shuttle.destinations.*
 import com.openlattice.shuttle.logs.Blackbox
 import com.openlattice.shuttle.payload.Payload
-import com.zaxxer.hikari.HikariConfig
-import com.zaxxer.hikari.HikariDataSource
+import com.openlattice.shuttle.pipeline.ExecutionRuntime
 import jodd.mail.Email
 import jodd.mail.EmailAddress
 import jodd.mail.MailServer
@@ -220,6 +222,12 @@ class MissionControl(
             .client(RetrofitFactory.okHttpClient().build())
             .build().create(S3Api::class.java)
 
+    /**
+     * The pools shared by the postgres destination and every shuttle prepared by this mission. Its threads are daemons,
+     * so they end with the process.
+     */
+    private val executionRuntime = ExecutionRuntime.fromParameters(parameters)
+
     private val entitySets: MutableMap<String, EntitySet>
     private val entityTypes: MutableMap<UUID, EntityType>
     private val propertyTypes: MutableMap<FullQualifiedName, PropertyType>
@@ -251,7 +259,9 @@ class MissionControl(
                     entitySets.mapKeys { it.value.id },
                     entityTypes,
                     propertyTypes.mapKeys { it.value.id },
-                    HikariDataSource(HikariConfig(parameters.postgres.config))
+                    PostgresDestination.dataSource(parameters.postgres.config),
+                    parameters.postgresDestination,
+                    executionRuntime
             )
 
             destinations[StorageDestination.POSTGRES] = pgDestination
@@ -277,7 +287,9 @@ class MissionControl(
             flightPlan: Map<Flight, Payload>,
             createEntitySets: Boolean = false,
             primaryKeyCols: Map<Flight, List<String>> = mapOf(),
-            contacts: Set<String> = setOf()
+            contacts: Set<String> = setOf(),
+            checkpoints: CheckpointStore = NoOpCheckpointStore,
+            resume: Boolean = false
     ): Shuttle {
         if (createEntitySets) {
             createMissingEntitySets(flightPlan, contacts)
@@ -300,7 +312,41 @@ class MissionControl(
                 Optional.empty(),
                 Optional.empty(),
                 null,
-                null
+                null,
+                checkpoints,
+                resume,
+                runtime = executionRuntime
+        )
+    }
+
+    /**
+     * Prepares a flight plan that reads and transforms its payloads as usual but writes nothing. Every storage
+     * destination is a [NoOpDestination] and entity key ids come from [entityKeyIds] instead of the server, so only
+     * the EDM is read from the environment.
+     */
+    fun prepareBenchmark(flightPlan: Map<Flight, Payload>, entityKeyIds: StubEntityKeyIdService): Shuttle {
+        ensureValidIntegration(flightPlan)
+        val noOpDestination = NoOpDestination()
+
+        return Shuttle(
+                environment,
+                false,
+                flightPlan,
+                entitySets,
+                entityTypes,
+                propertyTypes,
+                StorageDestination.values().associateWith { noOpDestination },
+                dataIntegrationApi,
+                mapOf(),
+                parameters,
+                binaryStorageDestination,
+                Blackbox.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                null,
+                null,
+                entityKeyIdSource = entityKeyIds::getEntityKeyIds,
+                runtime = executionRuntime
         )
     }
 
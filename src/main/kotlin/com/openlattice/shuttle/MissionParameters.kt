@@ -2,6 +2,8 @@ package com.openlattice.shuttle
 
 import com.fasterxml.jackson.annotation.JsonProperty
 import com.kryptnostic.rhizome.configuration.annotation.ReloadableConfiguration
+import com.openlattice.shuttle.destinations.PostgresWriteMode
+import com.openlattice.shuttle.pipeline.DEFAULT_MEMORY_BUDGET_FRACTION
 import java.util.*
 
 /**
@@ -13,9 +15,93 @@ data class PostgresConfiguration(
         @JsonProperty("config") val config: Properties
 )
 
+/**
+ * @param maximumSizeMb Upper bound on the memory used by cached entity key ids. Every integration has its own cache,
+ * which may use the job share of this, see [ExecutionConfiguration.jobShare].
+ * @param spillDirectory Directory for the file-backed store that receives entity key ids evicted from memory. Evicted
+ * ids are dropped when this is not set.
+ * @param maxInFlightRequests Number of entity key id requests for keys missing from the cache that may be in flight at
+ * the same time.
+ */
+data class EntityKeyIdCacheConfiguration(
+        @JsonProperty("maximum-size-mb") val maximumSizeMb: Long = 256,
+        @JsonProperty("spill-directory") val spillDirectory: String? = null,
+        @JsonProperty("max-in-flight-requests") val maxInFlightRequests: Int =
+                2 * Runtime.getRuntime().availableProcessors()
+)
+
+/**
+ * Bounds for the adaptive upload batch size. Adaptive batching is opt-in. The batch size requested for a launch is used
+ * as the starting point and is kept fixed when adaptive batching is disabled. A requested size outside of
+ * [minimumSize, maximumSize] widens the bounds instead of being clamped into them.
+ *
+ * @param targetLatencyMillis Time that transforming and writing a single batch should take.
+ * @param minimumHeapHeadroom Fraction of the heap that should remain free. Batches shrink while less is available.
+ */
+data class AdaptiveBatchingConfiguration(
+        @JsonProperty("enabled") val enabled: Boolean = false,
+        @JsonProperty("minimum-size") val minimumSize: Int = 1_000,
+        @JsonProperty("maximum-size") val maximumSize: Int = 4 * DEFAULT_UPLOAD_SIZE,
+        @JsonProperty("target-latency-ms") val targetLatencyMillis: Long = 10_000,
+        @JsonProperty("minimum-heap-headroom") val minimumHeapHeadroom: Double = 0.2
+)
+
+/**
+ * Sizes of the thread pools shared by every integration in the process.
+ *
+ * @param ioThreads Threads for each of entity key id requests, uploads and writes to destinations.
+ * @param jobShare Fraction of each pool a single integration may use. Defaults to the whole pool for the command line,
+ * which runs a single integration, and to a quarter of each pool on shuttle server.
+ * @param virtualThreads Run io on virtual threads when the JVM supports them. [ioThreads] then limits the number of
+ * concurrent io tasks instead of sizing pools.
+ */
+data class ExecutionConfiguration(
+        @JsonProperty("transform-threads") val transformThreads: Int = Runtime.getRuntime().availableProcessors(),
+        @JsonProperty("io-threads") val ioThreads: Int = 2 * Runtime.getRuntime().availableProcessors(),
+        @JsonProperty("job-share") val jobShare: Double? = null,
+        @JsonProperty("virtual-threads") val virtualThreads: Boolean = false
+)
+
+/**
+ * Settings for integrations that write straight to postgres.
+ *
+ * @param writeMode How property values are written, see [PostgresWriteMode].
+ * @param integrationWriteModes Write modes for integrations on shuttle server that differ from [writeMode], by
+ * integration name.
+ * @param maxStatementsPerBatch Upper bound on the rows sent to postgres in a single JDBC batch.
+ * @param partitionParallelism Number of partitions of a batch written at the same time, each on its own connection.
+ * Capped at the size of the connection pool and at the share of the io threads a single integration may use.
+ */
+data class PostgresDestinationConfiguration(
+        @JsonProperty("write-mode") val writeMode: PostgresWriteMode = PostgresWriteMode.BATCH,
+        @JsonProperty("max-statements-per-batch") val maxStatementsPerBatch: Int = 10_000,
+        @JsonProperty("partition-parallelism") val partitionParallelism: Int = Runtime.getRuntime().availableProcessors(),
+        @JsonProperty("integration-write-modes") val integrationWriteModes: Map<String, PostgresWriteMode> = mapOf()
+) {
+    /**
+     * @return The settings for the integration named [integrationName], with its own write mode if it has one.
+     */
+    fun forIntegration(integrationName: String): PostgresDestinationConfiguration {
+        return copy(writeMode = integrationWriteModes[integrationName] ?: writeMode)
+    }
+}
+
+/**
+ * @param memoryBudgetFraction Fraction of the maximum heap that batches in flight are allowed to use, going by their
+ * estimated size. The budget is shared by every integration in the process.
+ * @param parallelFlights Number of flights of a flight plan that are integrated at the same time.
+ */
 @ReloadableConfiguration(uri = "shuttle.yaml")
 data class MissionParameters(
-        @JsonProperty("postgres") val postgres: PostgresConfiguration
+        @JsonProperty("postgres") val postgres: PostgresConfiguration,
+        @JsonProperty("ekid-cache") val entityKeyIdCache: EntityKeyIdCacheConfiguration = EntityKeyIdCacheConfiguration(),
+        @JsonProperty("adaptive-batching") val adaptiveBatching: AdaptiveBatchingConfiguration =
+                AdaptiveBatchingConfiguration(),
+        @JsonProperty("memory-budget-fraction") val memoryBudgetFraction: Double = DEFAULT_MEMORY_BUDGET_FRACTION,
+        @JsonProperty("parallel-flights") val parallelFlights: Int = 1,
+        @JsonProperty("execution") val execution: ExecutionConfiguration = ExecutionConfiguration(),
+        @JsonProperty("postgres-destination") val postgresDestination: PostgresDestinationConfiguration =
+                PostgresDestinationConfiguration()
 ) {
     companion object {
         @JvmStatic
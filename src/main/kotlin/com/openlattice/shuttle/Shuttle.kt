@@ -22,15 +22,17 @@
 package com.openlattice.shuttle
 
 import com.codahale.metrics.MetricRegistry
-import com.codahale.metrics.Slf4jReporter
+import com.codahale.metrics.Meter
+import com.codahale.metrics.Timer
 import com.geekbeast.util.ExponentialBackoff
 import com.geekbeast.util.attempt
 import com.google.common.base.Stopwatch
 import com.google.common.collect.ImmutableList
 import com.google.common.collect.Maps
 import com.google.common.collect.Sets
-import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.hazelcast.core.HazelcastInstance
 import com.hazelcast.map.IMap
 import com.openlattice.ApiHelpers
@@ -47,24 +49,42 @@ import com.openlattice.edm.type.PropertyType
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.hazelcast.processors.shuttle.UpdateIntegrationStatusEntryProcessor
 import com.openlattice.retrofit.RhizomeRetrofitCallException
+import com.openlattice.shuttle.checkpoint.CheckpointStore
+import com.openlattice.shuttle.checkpoint.CheckpointTracker
+import com.openlattice.shuttle.checkpoint.NoOpCheckpointStore
 import com.openlattice.shuttle.destinations.AddressedDataHolder
 import com.openlattice.shuttle.destinations.IntegrationDestination
 import com.openlattice.shuttle.destinations.PostgresDestination
 import com.openlattice.shuttle.destinations.StorageDestination
+import com.openlattice.shuttle.ids.DefaultEntityIdBuilder
+import com.openlattice.shuttle.ids.EntityKeyIdCache
+import com.openlattice.shuttle.ids.EntityKeyIdResolver
 import com.openlattice.shuttle.logs.Blackbox
+import com.openlattice.shuttle.logs.BlackboxLogSink
 import com.openlattice.shuttle.logs.BlackboxProperty
+import com.openlattice.shuttle.metrics.FLIGHT_TAG
+import com.openlattice.shuttle.metrics.FlightMetrics
+import com.openlattice.shuttle.metrics.RUN_TAG
+import com.openlattice.shuttle.metrics.ShuttleMetrics
 import com.openlattice.shuttle.payload.Payload
-import com.zaxxer.hikari.HikariConfig
-import com.zaxxer.hikari.HikariDataSource
+import com.openlattice.shuttle.pipeline.AdaptiveBatchSizer
+import com.openlattice.shuttle.pipeline.ExecutionRuntime
+import com.openlattice.shuttle.pipeline.MemoryEstimator
+import com.openlattice.shuttle.pipeline.PipelineStage
+import com.openlattice.shuttle.pipeline.SharedReservation
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.apache.commons.lang3.StringUtils
-import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
 import org.slf4j.LoggerFactory
+import java.io.Closeable
 import java.time.OffsetDateTime
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentSkipListMap
 import java.util.concurrent.Executors
+import java.util.concurrent.Phaser
+import java.util.concurrent.RecursiveTask
 import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicLong
@@ -75,7 +95,8 @@ const val DEFAULT_UPLOAD_SIZE = 100_000
 const val MAX_DELAY = 8L * 60L * 1000L
 const val MAX_RETRIES = 128
 
-private val threadCount = 2 * Runtime.getRuntime().availableProcessors()
+private const val IMPULSE_SPLIT_THRESHOLD = 1_000
+
 private val encoder = Base64.getEncoder()
 
 /**
@@ -100,24 +121,20 @@ class Shuttle (
         maybeJobId: Optional<UUID>,
         private val idService: EntityKeyIdService?,
         hazelcastInstance: HazelcastInstance?,
-        private val uploadingExecutor: ListeningExecutorService = MoreExecutors.listeningDecorator(
-                Executors.newFixedThreadPool(threadCount)
-        )
+        private val checkpoints: CheckpointStore = NoOpCheckpointStore,
+        private val resume: Boolean = false,
+        entityKeyIdSource: ((Set<EntityKey>) -> Iterable<UUID>)? = null,
+        runtime: ExecutionRuntime? = null
 ) {
     companion object {
         private val logger = LoggerFactory.getLogger(Shuttle::class.java)
-        private val metrics = MetricRegistry()
+        private val metrics = ShuttleMetrics.registry
         private val uploadRate = metrics.meter(MetricRegistry.name(Shuttle::class.java, "uploads"))
         private val transformRate = metrics.meter(MetricRegistry.name(Shuttle::class.java, "transforms"))
-        private val reporter = Slf4jReporter.forRegistry(metrics)
-                .outputTo(LoggerFactory.getLogger(Shuttle::class.java))
-                .convertRatesTo(TimeUnit.SECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .build()
-
-        init {
-            reporter.start(1, TimeUnit.MINUTES)
-        }
+        private val mergeRate = metrics.meter(MetricRegistry.name(Shuttle::class.java, "merged-entities"))
+        private val entityKeyIdRequests = metrics.timer(MetricRegistry.name(Shuttle::class.java, "ekid-requests"))
+        private val entityKeyIdRetries = metrics.meter(MetricRegistry.name(Shuttle::class.java, "ekid-retries"))
+        private val payloadReads = MetricRegistry.name(Shuttle::class.java, "payload-reads")
     }
 
     //functions whose bodies differ when shuttle is run on or off shuttle server
@@ -128,6 +145,7 @@ class Shuttle (
     private lateinit var logEntitySet: EntitySet
     private lateinit var logsDestination: PostgresDestination
     private lateinit var integrationJobs: IMap<UUID, IntegrationJob>
+    private var logSink: BlackboxLogSink? = null
     private val logProperties = mutableMapOf<FullQualifiedName, PropertyType>()
     private val ptidsByBlackboxProperty = mutableMapOf<BlackboxProperty, UUID>()
 
@@ -136,12 +154,6 @@ class Shuttle (
             val jobId = maybeJobId.get()
             integrationJobs = HazelcastMap.INTEGRATION_JOBS.getMap( hazelcastInstance!! )
 
-            this.writeLog = { name, log, status ->
-                log.forEach { logger.info(it) }
-                storeLog(name, log, status, jobId)
-                integrationJobs.executeOnKey(jobId, UpdateIntegrationStatusEntryProcessor(status))
-            }
-
             this.getEntityKeyIds = { entityKeys ->
                 idService!!.reserveEntityKeyIds(entityKeys)
             }
@@ -155,7 +167,7 @@ class Shuttle (
 
             logEntitySet = maybeLogEntitySet.get()
             val logEntityTypeId = logEntitySet.entityTypeId
-            val logDataSource = HikariDataSource(HikariConfig(parameters.postgres.config))
+            val logDataSource = PostgresDestination.dataSource(parameters.postgres.config)
             logsDestination = PostgresDestination(
                     mapOf(logEntitySet.id to logEntitySet),
                     mapOf(logEntityTypeId to entityTypes.getValue(logEntityTypeId)),
@@ -163,85 +175,299 @@ class Shuttle (
                     logDataSource
             )
 
+            val sink = BlackboxLogSink(
+                    blackbox.maxBufferedEntries,
+                    blackbox.flushIntervalMillis,
+                    { name, log, status -> storeLog(name, log, status, jobId) },
+                    { status -> integrationJobs.executeOnKey(jobId, UpdateIntegrationStatusEntryProcessor(status)) }
+            )
+            logSink = sink
+
+            this.writeLog = { name, log, status ->
+                log.forEach { logger.info(it) }
+                sink.append(name, log, status)
+            }
         } else {
             this.writeLog = { _, log, _ -> log.forEach { logger.info(it) } }
 
-            this.getEntityKeyIds = { entityKeys ->
+            this.getEntityKeyIds = entityKeyIdSource ?: { entityKeys ->
                 dataIntegrationApi!!.getEntityKeyIds(entityKeys)
             }
         }
     }
 
-    private val uploadRegulator = Semaphore(threadCount)
+    /**
+     * The pools this shuttle runs on. A runtime is only created, and shut down after launching, when none is shared
+     * with other shuttles.
+     */
+    private val ownsRuntime = runtime == null
+    private val executionRuntime = runtime ?: ExecutionRuntime.fromParameters(parameters)
+    private val transformStage = PipelineStage(
+            "transform",
+            executionRuntime.transformExecutor,
+            executionRuntime.quota(executionRuntime.transformThreads),
+            metrics
+    )
+    private val uploadStage = PipelineStage(
+            "upload",
+            executionRuntime.uploadExecutor,
+            executionRuntime.quota(executionRuntime.ioThreads),
+            metrics
+    )
+    private val impulsePool = executionRuntime.impulsePool
+    private val entityKeyIdCache = EntityKeyIdCache.fromConfiguration(
+            parameters.entityKeyIdCache,
+            metrics,
+            executionRuntime.jobShare
+    )
+    private val entityKeyIdResolver = EntityKeyIdResolver(
+            entityKeyIdCache,
+            executionRuntime.entityKeyIdExecutor,
+            executionRuntime.quota(parameters.entityKeyIdCache.maxInFlightRequests.coerceIn(1, executionRuntime.ioThreads)),
+            metrics
+    ) { entityKeys -> generateEntityKeyIds(entityKeys) }
+    private val destinationStage = PipelineStage(
+            "destinations",
+            executionRuntime.destinationExecutor,
+            executionRuntime.quota(executionRuntime.ioThreads),
+            metrics
+    )
+    /**
+     * Flights grouped by the payload they read, so that each payload is only read once.
+     */
+    private val sorties: Map<Payload, List<Flight>> = flightPlan.entries.groupBy({ it.value }, { it.key })
+    private val flightParallelism = parameters.parallelFlights.coerceIn(1, sorties.size.coerceAtLeast(1))
 
-    private fun takeoff(
-            flight: Flight,
-            payload: Iterable<Map<String, Any?>>,
-            uploadBatchSize: Int,
-            rowColsToPrint: List<String>
-    ): Long {
-        val takeoffLog = "Takeoff! Starting primary thrusters."
-        writeLog(flight.name, setOf(takeoffLog), IntegrationStatus.IN_PROGRESS)
-        val integratedEntities = mutableMapOf<StorageDestination, AtomicLong>().withDefault { AtomicLong(0L) }
-        val integratedEdges = mutableMapOf<StorageDestination, AtomicLong>().withDefault { AtomicLong(0L) }
+    /**
+     * Batches a single flight may have in the pipeline when flights run in parallel, so that one large flight cannot
+     * take every slot of the shared stages and starve the others.
+     */
+    private val batchesPerFlight = if (flightParallelism <= 1) {
+        Int.MAX_VALUE
+    } else {
+        val pipelineCapacity = executionRuntime.quota(executionRuntime.transformThreads) +
+                2 * executionRuntime.quota(executionRuntime.ioThreads)
+        (pipelineCapacity / flightParallelism).coerceAtLeast(2)
+    }
+    private val executors = executionRuntime.executors
 
-        val rows = LongAdder()
-        val sw = Stopwatch.createStarted()
-        val remaining = AtomicLong(0)
-        val batchCounter = AtomicLong(0)
-        val minRows = ConcurrentSkipListMap<Long, Map<String, Any?>>()
+    /**
+     * Tells the metrics of this integration apart from those of integrations with flights of the same name running in
+     * the same process.
+     */
+    private val runId = maybeJobId.map { it.toString() }.orElseGet { UUID.randomUUID().toString() }
 
-        payload
-                .asSequence()
-                .chunked(uploadBatchSize)
-                .forEach { chunk ->
-                    uploadRegulator.acquire()
-                    uploadingExecutor.submit {
-                        ignition(
-                                chunk,
-                                flight,
-                                integratedEntities,
-                                integratedEdges,
-                                rows,
-                                batchCounter,
-                                minRows,
-                                remaining,
-                                rowColsToPrint,
-                                sw
-                        )
+    private val memoryBudget = executionRuntime.memoryBudget
+
+    /**
+     * Integrates one or more flights that read the same payload by pushing each chunk of the payload through the
+     * transform, entity key id and upload stages of every flight. The payload is read and parsed once no matter how
+     * many flights it feeds. Each stage has its own bounded pool, so transforms for later chunks keep running while
+     * earlier chunks are waiting on entity key ids or on the destinations. Chunk sizes start at [uploadBatchSize] and
+     * are adjusted by each flight's [AdaptiveBatchSizer] as batches complete; when flights share a payload the
+     * smallest requested size is used.
+     *
+     * The number of rows covered by the longest run of fully written batches is saved to the [checkpoints] as batches
+     * complete. When resuming, reading starts at the earliest checkpoint of the flights and each flight skips the rows
+     * up to its own checkpoint. Flights over a payload that is not [Payload.isOrdered] start from the first row.
+     */
+    private fun takeoff(flights: List<Flight>, payload: Payload, uploadBatchSize: Int): Long {
+        val progresses = flights.map { flight ->
+            val takeoffLog = "Takeoff! Starting primary thrusters."
+            writeLog(flight.name, setOf(takeoffLog), IntegrationStatus.IN_PROGRESS)
+
+            val checkpoint = if (resume) checkpoints.load(flight.name) ?: 0L else 0L
+            val resumeFrom = if (checkpoint > 0 && !payload.isOrdered) {
+                val restartLog = "Restarting flight ${flight.name} from the first row instead of resuming after " +
+                        "$checkpoint rows, since its payload does not return rows in a stable order."
+                writeLog(flight.name, setOf(restartLog), IntegrationStatus.IN_PROGRESS)
+                0L
+            } else {
+                checkpoint
+            }
+            if (resumeFrom > 0) {
+                val resumeLog = "Resuming flight ${flight.name} after $resumeFrom already integrated rows."
+                writeLog(flight.name, setOf(resumeLog), IntegrationStatus.IN_PROGRESS)
+            }
+
+            val flightMetrics = FlightMetrics(metrics, flight.name, runId)
+            FlightProgress(
+                    compile(flight),
+                    tableColsToPrint[flight] ?: listOf(),
+                    batchSizer(uploadBatchSize, flightMetrics),
+                    resumeFrom,
+                    CheckpointTracker(checkpoints, flight.name, resumeFrom),
+                    Semaphore(batchesPerFlight),
+                    flightMetrics
+            )
+        }
+        progresses.forEach { progress -> progress.metrics.batchesInFlight { progress.remaining.get() } }
+
+        val readTimerName = ShuttleMetrics.tagged(
+                payloadReads,
+                FLIGHT_TAG to flights.joinToString("+") { it.name },
+                RUN_TAG to runId
+        )
+        try {
+            val readTimer = metrics.timer(readTimerName)
+            var position = progresses.minOf { it.resumedFrom }
+            val rows = payload.getPayload(position).iterator()
+            while (rows.hasNext()) {
+                val chunkSize = progresses.minOf { it.batchSizer.nextSize() }
+                val chunk = ArrayList<Map<String, Any?>>(chunkSize)
+                readTimer.time().use {
+                    while (chunk.size < chunkSize && rows.hasNext()) {
+                        chunk.add(rows.next())
+                    }
+                }
 
-                    }.addListener(Runnable { uploadRegulator.release() }, uploadingExecutor)
+                val recipients = progresses.mapNotNull { progress ->
+                    val integrated = (progress.resumedFrom - position).coerceIn(0, chunk.size.toLong()).toInt()
+                    if (integrated < chunk.size) progress to integrated else null
                 }
-        uploadRegulator.acquire(threadCount)
-
-        return StorageDestination.values().map {
-            val integrationStatusUpdate = "Integrated ${integratedEntities.getValue(it)} entities and ${integratedEdges.getValue(it)} " +
-                    "edges in ${sw.elapsed(TimeUnit.MILLISECONDS)} ms for flight ${flight.name} to ${it.name}"
-            writeLog(flight.name, setOf(integrationStatusUpdate), IntegrationStatus.IN_PROGRESS)
-            integratedEntities.getValue(it).get() + integratedEdges.getValue(it).get()
-        }.sum()
+                val rowsReservation = SharedReservation(
+                        memoryBudget.reserve(MemoryEstimator.estimateRows(chunk)),
+                        recipients.size
+                )
+                recipients.forEach { (progress, integrated) ->
+                    ignition(
+                            if (integrated == 0) chunk else chunk.subList(integrated, chunk.size),
+                            progress,
+                            rowsReservation
+                    )
+                }
+                position += chunk.size
+            }
+
+            progresses.forEach { it.inFlight.arriveAndAwaitAdvance() }
+
+            return progresses.map { progress ->
+                val flight = progress.flight
+                StorageDestination.values().map {
+                    val entities = progress.integratedEntities[it]?.get() ?: 0L
+                    val edges = progress.integratedEdges[it]?.get() ?: 0L
+                    val integrationStatusUpdate = "Integrated $entities entities and $edges edges in " +
+                            "${progress.sw.elapsed(TimeUnit.MILLISECONDS)} ms for flight ${flight.name} to ${it.name}"
+                    writeLog(flight.name, setOf(integrationStatusUpdate), IntegrationStatus.IN_PROGRESS)
+                    entities + edges
+                }.sum()
+            }.sum()
+        } finally {
+            metrics.remove(readTimerName)
+            progresses.forEach { it.metrics.close() }
+        }
+    }
+
+    /**
+     * The requested [uploadBatchSize] is never clamped. It is kept as is unless adaptive batching was enabled, in which
+     * case it is the starting point and the configured bounds are widened to include it.
+     */
+    private fun batchSizer(uploadBatchSize: Int, flightMetrics: FlightMetrics): AdaptiveBatchSizer {
+        val adaptiveBatching = parameters.adaptiveBatching
+        return if (adaptiveBatching.enabled) {
+            AdaptiveBatchSizer(
+                    uploadBatchSize,
+                    minOf(adaptiveBatching.minimumSize, uploadBatchSize),
+                    maxOf(adaptiveBatching.maximumSize, uploadBatchSize),
+                    adaptiveBatching.targetLatencyMillis,
+                    adaptiveBatching.minimumHeapHeadroom,
+                    metrics,
+                    flightMetrics.tags
+            )
+        } else {
+            AdaptiveBatchSizer(uploadBatchSize, uploadBatchSize, uploadBatchSize, 0, 0.0, metrics, flightMetrics.tags)
+        }
     }
 
+    private fun compile(flight: Flight): CompiledFlight {
+        return CompiledFlight.compile(
+                flight,
+                entitySets,
+                entityTypes,
+                propertyTypes,
+                binaryDestination,
+                if (parameters.postgres.enabled) StorageDestination.POSTGRES else StorageDestination.REST,
+                environment
+        )
+    }
+
+    /**
+     * Hands a chunk to the transform stage. As soon as the transform completes, entity key ids for the batch are
+     * requested asynchronously and the transform worker moves on to the next chunk. When the ids arrive the batch is
+     * handed to the upload stage, so entity key id round trips overlap with the writes of earlier batches and a
+     * batch only waits for the slower of the two. Handing off to a full stage blocks the handing thread, which
+     * throttles the payload reader all the way back to the source.
+     *
+     * Rows are reserved against the [memoryBudget] once per chunk read, in [rowsReservation], no matter how many flights
+     * the chunk fans out to. The rows are released once every flight sharing them has transformed its batch, and each
+     * batch then holds a reservation for its transformed size until it has been uploaded. The reader therefore stops
+     * admitting chunks while wide rows or large binary values are in flight rather than running the process out of
+     * memory.
+     */
     private fun ignition(
             chunk: List<Map<String, Any?>>,
-            flight: Flight,
-            integratedEntities: MutableMap<StorageDestination, AtomicLong>,
-            integratedEdges: MutableMap<StorageDestination, AtomicLong>,
-            rows: LongAdder,
-            batchCounter: AtomicLong,
-            minRows: ConcurrentSkipListMap<Long, Map<String, Any?>>,
-            remaining: AtomicLong,
-            rowColsToPrint: List<String>,
-            sw: Stopwatch
+            progress: FlightProgress,
+            rowsReservation: SharedReservation
     ) {
-        val batchUpdate = "There are ${remaining.incrementAndGet()} batches in process for upload."
+        val flight = progress.flight
+        progress.admission.acquire()
+        val reservation = memoryBudget.reserve(0)
+        val rowCount = chunk.size
+        val batchId = progress.batchCounter.incrementAndGet()
+        progress.minRows[batchId] = chunk[0]
+        progress.checkpoint.started(batchId, rowCount)
+        progress.inFlight.register()
+
+        val batchUpdate = "There are ${progress.remaining.incrementAndGet()} batches in process for upload."
         writeLog(flight.name, setOf(batchUpdate), IntegrationStatus.IN_PROGRESS)
+
+        transformStage.submit {
+            val transformSw = Stopwatch.createStarted()
+            val batch = try {
+                transform(chunk, batchId, progress)
+            } finally {
+                rowsReservation.release()
+            }
+            val transformMillis = transformSw.elapsed(TimeUnit.MILLISECONDS)
+            reservation.resize(MemoryEstimator.estimateBatch(batch))
+            val entityKeys = batch.entities.flatMap { e -> e.value.map { it.key } }.toSet()
+            val entityKeyIdsContext = progress.metrics.entityKeyIds.time()
+            val pendingEntityKeyIds = entityKeyIdResolver.resolveAsync(entityKeys)
+            pendingEntityKeyIds.addListener(Runnable {
+                entityKeyIdsContext.stop()
+                val entityKeyIds = guarded(progress) { Futures.getDone(pendingEntityKeyIds) }
+                val ekidsResolvedUpdate = "Resolved ${entityKeyIds.size} entity key ids for batch $batchId."
+                writeLog(flight.name, setOf(ekidsResolvedUpdate), IntegrationStatus.IN_PROGRESS)
+                uploadStage.submit {
+                    try {
+                        val uploadSw = Stopwatch.createStarted()
+                        guarded(progress) { upload(batch, entityKeyIds, progress) }
+                        progress.checkpoint.written(batchId)
+                        progress.batchSizer.observe(
+                                rowCount,
+                                transformMillis + uploadSw.elapsed(TimeUnit.MILLISECONDS)
+                        )
+                    } finally {
+                        reservation.close()
+                        progress.admission.release()
+                        val remainingBatchesUpdate = "There are ${progress.remaining.decrementAndGet()} batches " +
+                                "remaining for upload."
+                        writeLog(flight.name, setOf(remainingBatchesUpdate), IntegrationStatus.IN_PROGRESS)
+                        progress.inFlight.arriveAndDeregister()
+                    }
+                }
+            }, MoreExecutors.directExecutor())
+        }
+    }
+
+    private fun transform(chunk: List<Map<String, Any?>>, batchId: Long, progress: FlightProgress): AddressedDataHolder {
+        val flight = progress.flight
         val batchSw = Stopwatch.createStarted()
-        val batch = try {
-            rows.add(chunk.size.toLong())
-            val batchCtr = batchCounter.incrementAndGet()
-            minRows[batchCtr] = chunk[0]
-            impulse(flight, chunk, batchCtr)
+        return try {
+            progress.rows.add(chunk.size.toLong())
+            val batch = progress.metrics.impulse.time().use { impulse(progress.compiledFlight, chunk, batchId) }
+            mergeRate.mark(batch.mergeEntities(updateTypes).toLong())
+            batch
         } catch (ex: Exception) {
             val errorInfo = if (ex is RhizomeRetrofitCallException) {
                 "Server returned ${ex.code} with body: ${ex.body}."
@@ -249,94 +475,149 @@ class Shuttle (
                 "Something went wrong during client side processing. "
             }
             writeLog(flight.name, setOf(errorInfo, ex.stackTrace.toString()), IntegrationStatus.FAILED)
-            MissionControl.fail(1, flight, ex, listOf(uploadingExecutor))
+            MissionControl.fail(1, flight, ex, executors)
         } catch (err: OutOfMemoryError) {
             writeLog(flight.name, setOf("out of memory error"), IntegrationStatus.FAILED)
-            MissionControl.fail(1, flight, err, listOf(uploadingExecutor))
+            MissionControl.fail(1, flight, err, executors)
         } finally {
             transformRate.mark()
             val transformUpdate = "Batch took to ${batchSw.elapsed(TimeUnit.MILLISECONDS)} ms to transform."
             writeLog(flight.name, setOf(transformUpdate), IntegrationStatus.IN_PROGRESS)
         }
+    }
 
-        try {
-            val ekidGenStartingUpdate = "Starting entity key id generation in thread ${Thread.currentThread().id}"
-            writeLog(flight.name, setOf(ekidGenStartingUpdate), IntegrationStatus.IN_PROGRESS)
-            val ekSw = Stopwatch.createStarted()
-            val entityKeys = batch.entities.flatMap { e -> e.value.map { it.key } }.toSet()
-            val entityKeyIds = attempt(ExponentialBackoff(MAX_DELAY), MAX_RETRIES) {
-                entityKeys.zip(getEntityKeyIds(entityKeys)).toMap()
-            }
+    /**
+     * Requests entity key ids for keys that missed the [entityKeyIdCache]. Runs on the [entityKeyIdResolver] threads.
+     */
+    private fun generateEntityKeyIds(entityKeys: Set<EntityKey>): Iterable<UUID> {
+        logger.info("Starting entity key id generation in thread {}", Thread.currentThread().id)
+        val ekSw = Stopwatch.createStarted()
+        val entityKeyIds = timedAttempt(entityKeyIdRequests, entityKeyIdRetries) { getEntityKeyIds(entityKeys) }
+        logger.info("Generated {} entity key ids in {} ms", entityKeys.size, ekSw.elapsed(TimeUnit.MILLISECONDS))
+        return entityKeyIds
+    }
 
-            val ekidsGeneratedUpdate = "Generated ${entityKeys.size} entity key ids in ${ekSw.elapsed(TimeUnit.MILLISECONDS)} ms"
-            writeLog(flight.name, setOf(ekidsGeneratedUpdate), IntegrationStatus.IN_PROGRESS)
-
-            integrationDestinations.forEach { (storageDestination, integrationDestination) ->
-                if (batch.entities.containsKey(storageDestination)) {
-                    integratedEntities.getOrPut(storageDestination) { AtomicLong(0) }.addAndGet(
-                            attempt(ExponentialBackoff(MAX_DELAY), MAX_RETRIES) {
-                                integrationDestination.integrateEntities(
-                                        batch.entities.getValue(storageDestination),
-                                        entityKeyIds,
-                                        updateTypes
-                                )
-                            }
-                    )
-                }
+    private fun upload(batch: AddressedDataHolder, entityKeyIds: Map<EntityKey, UUID>, progress: FlightProgress) {
+        val flight = progress.flight
+        val uploadSw = Stopwatch.createStarted()
+        writeConcurrently(batch.entities.keys) { storageDestination, integrationDestination ->
+            progress.integratedEntities.computeIfAbsent(storageDestination) { AtomicLong(0) }.addAndGet(
+                    timedAttempt(
+                            progress.metrics.entityWrites(storageDestination),
+                            progress.metrics.retries(storageDestination)
+                    ) {
+                        integrationDestination.integrateEntities(
+                                batch.entities.getValue(storageDestination),
+                                entityKeyIds,
+                                updateTypes
+                        )
+                    }
+            )
+        }
 
-                if (batch.associations.containsKey(storageDestination)) {
-                    integratedEdges.getOrPut(storageDestination) { AtomicLong(0) }.addAndGet(
-                            attempt(ExponentialBackoff(MAX_DELAY), MAX_RETRIES) {
-                                integrationDestination.integrateAssociations(
-                                        batch.associations.getValue(storageDestination),
-                                        entityKeyIds,
-                                        updateTypes
-                                )
-                            }
-                    )
-                }
-            }
+        writeConcurrently(batch.associations.keys) { storageDestination, integrationDestination ->
+            progress.integratedEdges.computeIfAbsent(storageDestination) { AtomicLong(0) }.addAndGet(
+                    timedAttempt(
+                            progress.metrics.edgeWrites(storageDestination),
+                            progress.metrics.retries(storageDestination)
+                    ) {
+                        integrationDestination.integrateAssociations(
+                                batch.associations.getValue(storageDestination),
+                                entityKeyIds,
+                                updateTypes
+                        )
+                    }
+            )
+        }
 
-            minRows.remove(batch.batchId)
-            uploadRate.mark(entityKeys.size.toLong())
-            val currentBatchDurationUpdate = "Processed current batch ${batch.batchId} in ${ekSw.elapsed(TimeUnit.MILLISECONDS)} ms."
-            writeLog(flight.name, setOf(currentBatchDurationUpdate), IntegrationStatus.IN_PROGRESS)
+        progress.minRows.remove(batch.batchId)
+        uploadRate.mark(entityKeyIds.size.toLong())
+        val currentBatchDurationUpdate = "Uploaded current batch ${batch.batchId} in ${uploadSw.elapsed(TimeUnit.MILLISECONDS)} ms."
+        writeLog(flight.name, setOf(currentBatchDurationUpdate), IntegrationStatus.IN_PROGRESS)
 
-            logger.info(
-                    "=================================================================================="
-            )
+        logger.info(
+                "=================================================================================="
+        )
 
-            val totalProcessedUpdate = "Processed ${rows.sum()} rows so far in ${sw.elapsed(TimeUnit.MILLISECONDS)} ms."
-            writeLog(flight.name, setOf(totalProcessedUpdate), IntegrationStatus.IN_PROGRESS)
+        val totalProcessedUpdate = "Processed ${progress.rows.sum()} rows so far in ${progress.sw.elapsed(TimeUnit.MILLISECONDS)} ms."
+        writeLog(flight.name, setOf(totalProcessedUpdate), IntegrationStatus.IN_PROGRESS)
 
-            //write entity with rows processed
-            val currentEntitiesProgressUpdate = "Current entities progress: $integratedEntities"
-            writeLog(flight.name, setOf(currentEntitiesProgressUpdate), IntegrationStatus.IN_PROGRESS)
+        //write entity with rows processed
+        val currentEntitiesProgressUpdate = "Current entities progress: ${progress.integratedEntities}"
+        writeLog(flight.name, setOf(currentEntitiesProgressUpdate), IntegrationStatus.IN_PROGRESS)
 
-            val currentEdgesProgressUpdate = "Current edges progress: $integratedEdges"
-            writeLog(flight.name, setOf(currentEdgesProgressUpdate), IntegrationStatus.IN_PROGRESS)
+        val currentEdgesProgressUpdate = "Current edges progress: ${progress.integratedEdges}"
+        writeLog(flight.name, setOf(currentEdgesProgressUpdate), IntegrationStatus.IN_PROGRESS)
 
-            logger.info(
-                    "==================================================================================="
-            )
+        logger.info(
+                "==================================================================================="
+        )
+    }
 
+    /**
+     * Retries [call] with exponential backoff like every other remote call, timing each attempt with [timer] and
+     * marking [retries] for every attempt after the first.
+     */
+    private fun <T> timedAttempt(timer: Timer, retries: Meter, call: () -> T): T {
+        var attempts = 0
+        return attempt(ExponentialBackoff(MAX_DELAY), MAX_RETRIES) {
+            if (attempts++ > 0) {
+                retries.mark()
+            }
+            timer.time().use { call() }
+        }
+    }
+
+    /**
+     * Runs [write] for every integration destination that has data in [storageDestinations], concurrently when there
+     * is more than one, and waits for all of them to finish. The first write runs on the calling thread and the rest
+     * on the destination stage, which bounds how many writes run at once even when they are on virtual threads.
+     * Entities are written to every destination before any associations, so edges never reference entities that have
+     * not been written yet.
+     */
+    private fun writeConcurrently(
+            storageDestinations: Set<StorageDestination>,
+            write: (StorageDestination, IntegrationDestination) -> Unit
+    ) {
+        val writes = integrationDestinations.filterKeys { it in storageDestinations }
+        if (writes.size <= 1) {
+            writes.forEach { (storageDestination, integrationDestination) ->
+                write(storageDestination, integrationDestination)
+            }
+            return
+        }
+
+        val (first, rest) = writes.entries.first() to writes.entries.drop(1)
+        val pending = Futures.allAsList(rest.map { (storageDestination, integrationDestination) ->
+            destinationStage.submit { write(storageDestination, integrationDestination) }
+        })
+        write(first.key, first.value)
+        pending.get()
+    }
+
+    /**
+     * Runs the entity key id and upload stages of a batch, failing the mission and reporting the earliest
+     * unintegrated row if anything goes wrong.
+     */
+    private fun <T> guarded(progress: FlightProgress, stage: () -> T): T {
+        val flight = progress.flight
+        return try {
+            stage()
         } catch (ex: Exception) {
-            if (rowColsToPrint.isNotEmpty()) {
-                val earliestUnintegratedRowUpdate = "Earliest unintegrated row:\n" + printRow(minRows.firstEntry().value, rowColsToPrint)
+            if (progress.rowColsToPrint.isNotEmpty()) {
+                val earliestUnintegratedRowUpdate = "Earliest unintegrated row:\n" +
+                        printRow(progress.minRows.firstEntry().value, progress.rowColsToPrint)
                 writeLog(flight.name, setOf(earliestUnintegratedRowUpdate, ex.stackTrace.toString()), IntegrationStatus.FAILED)
             }
-            MissionControl.fail(1, flight, ex, listOf(uploadingExecutor))
+            MissionControl.fail(1, flight, ex, executors)
         } catch (err: OutOfMemoryError) {
-            if (rowColsToPrint.isNotEmpty()) {
-                val earliestUnintegratedRowUpdate = "Earliest unintegrated row:\n" + printRow(minRows.firstEntry().value, rowColsToPrint)
+            if (progress.rowColsToPrint.isNotEmpty()) {
+                val earliestUnintegratedRowUpdate = "Earliest unintegrated row:\n" +
+                        printRow(progress.minRows.firstEntry().value, progress.rowColsToPrint)
                 writeLog(flight.name, setOf(earliestUnintegratedRowUpdate, err.stackTrace.toString()), IntegrationStatus.FAILED)
             }
-            MissionControl.fail(1, flight, err, listOf(uploadingExecutor))
-        } finally {
-            val remainingBatchesUpdate = "There are ${remaining.decrementAndGet()} batches remaining for upload."
-            writeLog(flight.name, setOf(remainingBatchesUpdate), IntegrationStatus.IN_PROGRESS)
+            MissionControl.fail(1, flight, err, executors)
         }
-
     }
 
     private fun printRow(row: Map<String, Any?>, rowColsToPrint: List<String>): String {
@@ -352,7 +633,7 @@ class Shuttle (
 
     private fun buildPropertiesFromPropertyDefinitions(
             row: Map<String, Any?>,
-            entityDefinition: EntityDefinition
+            entityDefinition: CompiledEntityDefinition
     ): Pair<MutableMap<UUID, MutableSet<Any>>, MutableMap<StorageDestination, MutableMap<UUID, MutableSet<Any>>>> {
 
         val propertyDefinitions = entityDefinition.properties
@@ -360,32 +641,19 @@ class Shuttle (
         val addressedProperties = Maps.newLinkedHashMapWithExpectedSize<StorageDestination, MutableMap<UUID, MutableSet<Any>>>(1)
 
         for (propertyDefinition in propertyDefinitions) {
-            val propertyValue = propertyDefinition.propertyValue.apply(row)
+            val propertyValue = propertyDefinition.definition.propertyValue.apply(row)
 
             if (propertyValue == null || ((propertyValue is String) && propertyValue.isBlank()) ) {
                 continue
             }
 
-            val propertyType = propertyTypes.getValue(propertyDefinition.fullQualifiedName)
-
-            val storageDestination = if ( entityDefinition.associateOnly ) {
-                StorageDestination.NO_OP
-            } else {
-                propertyDefinition.storageDestination.orElseGet {
-                    when (propertyType.datatype) {
-                        EdmPrimitiveTypeKind.Binary -> binaryDestination
-                        else -> if (parameters.postgres.enabled) StorageDestination.POSTGRES else StorageDestination.REST
-                    }
-                }
-            }
+            val storageDestination = propertyDefinition.storageDestination
 
             var propertyValueAsCollection: Collection<Any> =
                     if (propertyValue is Collection<*>) propertyValue as Collection<Any>
                     else ImmutableList.of(propertyValue)
 
-            if (propertyType.datatype == EdmPrimitiveTypeKind.Binary
-                    && storageDestination == StorageDestination.REST
-                    && environment == RetrofitFactory.Environment.LOCAL) {
+            if (propertyDefinition.encodeBinary) {
                 propertyValueAsCollection = propertyValueAsCollection.map {
                     mapOf(
                             "content-type" to "application/octet-stream",
@@ -393,7 +661,7 @@ class Shuttle (
                     )
                 }
             }
-            val propertyId = propertyType.id
+            val propertyId = propertyDefinition.propertyTypeId
 
             addressedProperties
                     .getOrPut(storageDestination) { Maps.newLinkedHashMapWithExpectedSize(propertyDefinitions.size ) }
@@ -405,22 +673,62 @@ class Shuttle (
         return Pair(properties, addressedProperties)
     }
 
+    /**
+     * Transforms a batch by splitting it into row ranges that are processed on the fork-join [impulsePool]. Partial
+     * results are merged left to right, so entities and associations end up in the same order as a sequential pass
+     * over the batch. Default entity ids are still generated per row from the ordered key set, so splitting the batch
+     * has no effect on them.
+     *
+     * Internal so that the transformation hot path can be benchmarked in isolation.
+     */
+    internal fun impulse(flight: CompiledFlight, batch: List<Map<String, Any?>>, batchNumber: Long): AddressedDataHolder {
+        if (batch.size <= IMPULSE_SPLIT_THRESHOLD) {
+            return impulseRows(flight, batch, batchNumber)
+        }
+        return impulsePool.invoke(ImpulseTask(flight, batch, batchNumber))
+    }
+
+    private inner class ImpulseTask(
+            private val flight: CompiledFlight,
+            private val rows: List<Map<String, Any?>>,
+            private val batchNumber: Long
+    ) : RecursiveTask<AddressedDataHolder>() {
+        override fun compute(): AddressedDataHolder {
+            if (rows.size <= IMPULSE_SPLIT_THRESHOLD) {
+                return impulseRows(flight, rows, batchNumber)
+            }
+
+            val mid = rows.size / 2
+            val left = ImpulseTask(flight, rows.subList(0, mid), batchNumber)
+            left.fork()
+            val right = ImpulseTask(flight, rows.subList(mid, rows.size), batchNumber).compute()
+            return left.join().absorb(right)
+        }
+    }
+
     /**
      * HERE BE DARGONS
      */
-    private fun impulse(flight: Flight, batch: List<Map<String, Any?>>, batchNumber: Long): AddressedDataHolder {
+    private fun impulseRows(
+            compiledFlight: CompiledFlight,
+            batch: List<Map<String, Any?>>,
+            batchNumber: Long
+    ): AddressedDataHolder {
+        val flight = compiledFlight.flight
+        val entityDefinitions = compiledFlight.entities
         val addressedDataHolder = AddressedDataHolder(
-                Maps.newLinkedHashMapWithExpectedSize(batch.size * flight.entities.size),
-                Maps.newLinkedHashMapWithExpectedSize(batch.size * flight.associations.size),
+                Maps.newLinkedHashMapWithExpectedSize(StorageDestination.values().size),
+                Maps.newLinkedHashMapWithExpectedSize(StorageDestination.values().size),
                 batchNumber)
 
         batch.forEach { row ->
-            val aliasesToEntityKey = Maps.newHashMapWithExpectedSize<String, EntityKey>(flight.entities.size)
-            val wasCreated = Maps.newHashMapWithExpectedSize<String, Boolean>(flight.entities.size)
+            val entityKeys = arrayOfNulls<EntityKey>(entityDefinitions.size)
             if (flight.condition.isPresent && !(flight.valueMapper.apply(row) as Boolean)) {
                 return@forEach
             }
-            for (entityDefinition in flight.entities) {
+            for (index in entityDefinitions.indices) {
+                val compiledDefinition = entityDefinitions[index]
+                val entityDefinition = compiledDefinition.definition
                 val condition = if (entityDefinition.condition.isPresent) {
                     entityDefinition.valueMapper.apply(row) as Boolean
                 } else {
@@ -428,7 +736,7 @@ class Shuttle (
                 }
 
                 val (properties, addressedProperties) = buildPropertiesFromPropertyDefinitions(
-                        row, entityDefinition
+                        row, compiledDefinition
                 )
 
                 /*
@@ -439,63 +747,45 @@ class Shuttle (
                 val entityId = entityDefinition.generator
                         .map { it.apply(row) }
                         .orElseGet {
-                            generateDefaultEntityId(getKeys(entityDefinition.entitySetName), properties)
+                            generateDefaultEntityId(compiledDefinition.key, properties)
                         }
 
                 if (StringUtils.isNotBlank(entityId) && condition && properties.isNotEmpty()) {
-
-                    val entitySetId = entitySets[entityDefinition.entitySetName]!!.id
-
-                    val key = EntityKey(entitySetId, entityId)
-                    aliasesToEntityKey[entityDefinition.alias] = key
+                    val key = EntityKey(compiledDefinition.entitySetId, entityId)
+                    entityKeys[index] = key
                     addressedProperties.forEach { (storageDestination, data) ->
                         addressedDataHolder.entities
                                 .getOrPut(storageDestination) { mutableSetOf() }
                                 .add(Entity(key, data))
                     }
-                    wasCreated[entityDefinition.alias] = true
-                } else {
-                    wasCreated[entityDefinition.alias] = false
                 }
             }
 
-            for (associationDefinition in flight.associations) {
+            for (compiledAssociation in compiledFlight.associations) {
+                val compiledDefinition = compiledAssociation.entity
+                val associationDefinition = compiledDefinition.definition
 
                 if (associationDefinition.condition.isPresent &&
                         !(associationDefinition.valueMapper.apply(row) as Boolean)) {
                     continue
                 }
 
-                if (!wasCreated.containsKey(associationDefinition.dstAlias)) {
-                    val destinationError = "Destination ${associationDefinition.dstAlias} " +
-                            "cannot be found to construct association ${associationDefinition.alias}"
-                    writeLog(flight.name, setOf(destinationError), IntegrationStatus.IN_PROGRESS)
-                }
-
-                if (!wasCreated.containsKey(associationDefinition.srcAlias)) {
-                    val sourceError = "Source ${associationDefinition.srcAlias} " +
-                            "cannot be found to construct association ${associationDefinition.alias}"
-                    writeLog(flight.name, setOf(sourceError), IntegrationStatus.IN_PROGRESS)
-                }
-                if ((wasCreated[associationDefinition.srcAlias]!! && wasCreated[associationDefinition.dstAlias]!!)) {
+                val src = entityKeys[compiledAssociation.src]
+                val dst = entityKeys[compiledAssociation.dst]
+                if (src != null && dst != null) {
 
                     val (properties, addressedProperties) = buildPropertiesFromPropertyDefinitions(
-                            row, associationDefinition
+                            row, compiledDefinition
                     )
 
                     val entityId = associationDefinition.generator
                             .map { it.apply(row) }
                             .orElseGet {
-                                generateDefaultEntityId(getKeys(associationDefinition.entitySetName), properties)
+                                generateDefaultEntityId(compiledDefinition.key, properties)
                             }
 
                     if (StringUtils.isNotBlank(entityId)) {
-
-                        val entitySetId = entitySets.getValue(associationDefinition.entitySetName).id
-
-                        val key = EntityKey(entitySetId, entityId)
-                        val src = aliasesToEntityKey[associationDefinition.srcAlias]
-                        val dst = aliasesToEntityKey[associationDefinition.dstAlias]
+                        val key = EntityKey(compiledDefinition.entitySetId, entityId)
                         addressedProperties.forEach { (storageDestination, data) ->
                             addressedDataHolder.entities
                                     .getOrPut(storageDestination) { mutableSetOf() }
@@ -514,27 +804,48 @@ class Shuttle (
         return addressedDataHolder
     }
 
+    private val defaultEntityIds = DefaultEntityIdBuilder()
+
     private val updateTypes = flightPlan.keys.flatMap { flight ->
         flight.entities.map { entitySets.getValue(it.entitySetName).id to it.updateType } +
                 flight.associations.map { entitySets.getValue(it.entitySetName).id to it.updateType }
     }.toMap()
 
 
+    /**
+     * Integrates every flight in the flight plan. Flights that share a payload are flown together over a single read
+     * of it. Up to [MissionParameters.parallelFlights] payloads are read at the same time; their flights share the
+     * pipeline stages, the entity key id cache and the memory budget.
+     */
     fun launch(uploadBatchSize: Int): Long {
         val sw = Stopwatch.createStarted()
+        logger.info(
+                "Integration may use {} of {} transform threads and {} of {} io threads per stage.",
+                executionRuntime.quota(executionRuntime.transformThreads),
+                executionRuntime.transformThreads,
+                executionRuntime.quota(executionRuntime.ioThreads),
+                executionRuntime.ioThreads
+        )
         var total = 0L
         try {
-            total = flightPlan.entries.map { (flight, payload) ->
-                val launchUpdate = "Launching flight: ${flight.name}"
-                writeLog(flight.name, setOf(launchUpdate), IntegrationStatus.IN_PROGRESS)
-
-                val tableColsToPrintForFlight = tableColsToPrint[flight] ?: listOf()
-                val count = takeoff(flight, payload.getPayload(), uploadBatchSize, tableColsToPrintForFlight)
-
-                val finishUpdate = "Finished flight: ${flight.name}"
-                writeLog(flight.name, setOf(finishUpdate), IntegrationStatus.SUCCEEDED)
-                count
-            }.sum()
+            total = if (flightParallelism <= 1) {
+                sorties.map { (payload, flights) -> fly(flights, payload, uploadBatchSize) }.sum()
+            } else {
+                val launcher = Executors.newFixedThreadPool(
+                        flightParallelism,
+                        ThreadFactoryBuilder().setNameFormat("shuttle-flight-%d").setDaemon(true).build()
+                )
+                try {
+                    sorties
+                            .map { (payload, flights) ->
+                                launcher.submit(Callable { fly(flights, payload, uploadBatchSize) })
+                            }
+                            .map { it.get() }
+                            .sum()
+                } finally {
+                    launcher.shutdownNow()
+                }
+            }
             logger.info("Executed {} entity writes in flight plan in {} ms.", total, sw.elapsed(TimeUnit.MILLISECONDS))
         } catch (ex: java.lang.Exception) {
             val flightNames = flightPlan.keys.joinToString(", ") { it.name }
@@ -543,20 +854,37 @@ class Shuttle (
             if (!isShuttleServer) {
                 // This is here for backwards compatibility.
                 // Should be removed when non-shuttle-server is deprecated
-                MissionControl.fail(1, flightPlan.keys.first(), ex, listOf(uploadingExecutor))
+                MissionControl.fail(1, flightPlan.keys.first(), ex, executors)
             }
        } finally {
-            reporter.close()
-            uploadingExecutor.shutdownNow()
+            ShuttleMetrics.report()
+            if (ownsRuntime) {
+                executionRuntime.close()
+            }
+            entityKeyIdCache.close()
+            logSink?.close()
+            integrationDestinations.values.filterIsInstance<Closeable>().forEach { it.close() }
+            if (this::logsDestination.isInitialized) {
+                logsDestination.close()
+            }
         }
         return total
     }
 
-    /**
-     * This function works under the assumption that the set returned from key is a unmodifiable linked hash set.
-     */
-    private fun getKeys(entitySetName: String): Set<UUID> {
-        return entityTypes.getValue(entitySets.getValue(entitySetName).entityTypeId).key
+    private fun fly(flights: List<Flight>, payload: Payload, uploadBatchSize: Int): Long {
+        flights.forEach { flight ->
+            val launchUpdate = "Launching flight: ${flight.name}"
+            writeLog(flight.name, setOf(launchUpdate), IntegrationStatus.IN_PROGRESS)
+        }
+
+        val count = takeoff(flights, payload, uploadBatchSize)
+
+        flights.forEach { flight ->
+            checkpoints.clear(flight.name)
+            val finishUpdate = "Finished flight: ${flight.name}"
+            writeLog(flight.name, setOf(finishUpdate), IntegrationStatus.SUCCEEDED)
+        }
+        return count
     }
 
     /**
@@ -564,6 +892,9 @@ class Shuttle (
      * This is guaranteed to be unique for each unique set of primary key values. For this to work correctly it is very
      * important that Stream remain ordered. Ordered != sequential vs parallel.
      *
+     * Ids are built by [defaultEntityIds], which produces the same ids as [ApiHelpers.generateDefaultEntityId] without
+     * allocating per key property.
+     *
      * @param key A stable set of ordered primary key property type ids to use for default entity key generation.
      */
     private fun generateDefaultEntityId(
@@ -572,7 +903,7 @@ class Shuttle (
     ): String {
         val keyValuesPresent = key.any { !properties[it].isNullOrEmpty() }
 
-        return if (keyValuesPresent) ApiHelpers.generateDefaultEntityId(key, properties) else ""
+        return if (keyValuesPresent) defaultEntityIds.build(key, properties) else ""
     }
 
     private fun storeLog(flightName: String, log: Set<String>, status: IntegrationStatus, jobId: UUID) {
@@ -596,4 +927,27 @@ class Shuttle (
         return logPropertyData
     }
 
+    /**
+     * Progress of a single flight through the pipeline. The [inFlight] phaser has one party for the payload reader and
+     * one for every batch that has been handed to the transform stage but not yet finished uploading.
+     */
+    private class FlightProgress(
+            val compiledFlight: CompiledFlight,
+            val rowColsToPrint: List<String>,
+            val batchSizer: AdaptiveBatchSizer,
+            val resumedFrom: Long,
+            val checkpoint: CheckpointTracker,
+            val admission: Semaphore,
+            val metrics: FlightMetrics
+    ) {
+        val flight: Flight = compiledFlight.flight
+        val integratedEntities = ConcurrentHashMap<StorageDestination, AtomicLong>()
+        val integratedEdges = ConcurrentHashMap<StorageDestination, AtomicLong>()
+        val rows = LongAdder()
+        val sw: Stopwatch = Stopwatch.createStarted()
+        val remaining = AtomicLong(0)
+        val batchCounter = AtomicLong(0)
+        val minRows = ConcurrentSkipListMap<Long, Map<String, Any?>>()
+        val inFlight = Phaser(1)
+    }
 }
@@ -10,23 +10,33 @@ import com.fasterxml.jackson.databind.JsonMappingException
 import com.google.common.base.Preconditions
 import com.openlattice.ResourceConfigurationLoader
 import com.openlattice.client.RetrofitFactory
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.ADAPTIVE_UPLOAD_SIZE
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.BENCHMARK
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.CHECKPOINT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.CONFIGURATION
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.CREATE
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.CSV
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.DATASOURCE
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.DATA_ORIGIN
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.EKID_CACHE_SIZE
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.EKID_CACHE_SPILL
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.EKID_REQUESTS
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.ENVIRONMENT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.FETCHSIZE
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.FIXED_UPLOAD_SIZE
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.FLIGHT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.FROM_EMAIL
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.FROM_EMAIL_PASSWORD
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.HELP
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.LOCAL_ORIGIN_EXPECTED_ARGS_COUNT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.NOTIFICATION_EMAILS
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.PARALLEL_FLIGHTS
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.PASSWORD
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.POSTGRES
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.POSTGRES_WRITE_MODE
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.PROFILES
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.READ_RATE_LIMIT
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.RESUME
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.S3
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.S3_ORIGIN_MAXIMUM_ARGS_COUNT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.S3_ORIGIN_MINIMUM_ARGS_COUNT
@@ -34,11 +44,21 @@ import com.openlattice.shuttle.ShuttleCliOptions.Companion.SERVER
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.SMTP_SERVER
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.SMTP_SERVER_PORT
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.SQL
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.STUB_EKID_LATENCY
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.SYNTHETIC_COLUMNS
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.THREADS
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.TOKEN
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.UPLOAD_SIZE
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.USER
+import com.openlattice.shuttle.ShuttleCliOptions.Companion.VIRTUAL_THREADS
 import com.openlattice.shuttle.ShuttleCliOptions.Companion.XML
+import com.openlattice.shuttle.benchmark.StubEntityKeyIdService
+import com.openlattice.shuttle.benchmark.ThroughputBenchmark
+import com.openlattice.shuttle.checkpoint.FileCheckpointStore
+import com.openlattice.shuttle.checkpoint.NoOpCheckpointStore
 import com.openlattice.shuttle.config.IntegrationConfig
+import com.openlattice.shuttle.destinations.PostgresWriteMode
+import com.openlattice.shuttle.metrics.ShuttleMetrics
 import com.openlattice.shuttle.payload.*
 import com.openlattice.shuttle.source.LocalFileOrigin
 import com.openlattice.shuttle.source.S3BucketOrigin
@@ -64,7 +84,7 @@ fun main(args: Array<String>) {
     val environment: RetrofitFactory.Environment
     val cl = ShuttleCliOptions.parseCommandLine(args)
     val payload: Payload
-    val flight: Flight
+    val flights: List<Flight>
     val createEntitySets: Boolean
     val contacts: Set<String>
     val rowColsToPrint: Map<Flight, List<String>>
@@ -96,21 +116,38 @@ fun main(args: Array<String>) {
         printErrorHelpAndExit("A flight is required in order to run shuttle.")
     }
 
-    flight = try {
-         ObjectMappers.getYamlMapper().readValue(File(cl.getOptionValue(FLIGHT)), Flight::class.java)
-    } catch (io: IOException) {
-        MissionControl.failWithBadInputs("IOException encountered converting yaml file into java flight objects", io)
-        Flight.newFlight("fail").done() // only here for compiler, above statement exits process
-    } catch (jp: JsonParseException) {
-        MissionControl.failWithBadInputs("Shuttle was unable to parse the flight yaml file", jp)
-        Flight.newFlight("fail").done() // only here for compiler, above statement exits process
-    } catch (jm: JsonMappingException) {
-        MissionControl.failWithBadInputs( "Shuttle was unable to map the flight yaml objects into java flight objects", jm)
-        Flight.newFlight("fail").done() // only here for compiler, above statement exits process
+    // Several flights can be given for the same source, in which case the source is only read once.
+    flights = cl.getOptionValues(FLIGHT).map { flightFile ->
+        try {
+            ObjectMappers.getYamlMapper().readValue(File(flightFile), Flight::class.java)
+        } catch (io: IOException) {
+            MissionControl.failWithBadInputs("IOException encountered converting yaml file into java flight objects", io)
+            Flight.newFlight("fail").done() // only here for compiler, above statement exits process
+        } catch (jp: JsonParseException) {
+            MissionControl.failWithBadInputs("Shuttle was unable to parse the flight yaml file", jp)
+            Flight.newFlight("fail").done() // only here for compiler, above statement exits process
+        } catch (jm: JsonMappingException) {
+            MissionControl.failWithBadInputs( "Shuttle was unable to map the flight yaml objects into java flight objects", jm)
+            Flight.newFlight("fail").done() // only here for compiler, above statement exits process
+        }
     }
+    val flight = flights.first()
 
     //You can have a configuration without any JDBC datasources
     when {
+        cl.hasOption(BENCHMARK) -> {
+            if (!cl.hasOption(SYNTHETIC_COLUMNS)) {
+                printErrorHelpAndExit("Synthetic columns must be specified when benchmarking.")
+            }
+            if (cl.hasOption(CONFIGURATION) || cl.hasOption(DATA_ORIGIN)) {
+                printErrorHelpAndExit("Cannot specify a datasource when benchmarking.")
+            }
+            rowColsToPrint = mapOf()
+            payload = SyntheticPayload(
+                    SyntheticColumn.parse(cl.getOptionValue(SYNTHETIC_COLUMNS)),
+                    cl.getOptionValue(BENCHMARK).toLong()
+            )
+        }
         cl.hasOption(CONFIGURATION) -> {
             configuration = ObjectMappers.getYamlMapper()
                     .readValue(File(cl.getOptionValue(CONFIGURATION)), IntegrationConfig::class.java)
@@ -138,7 +175,7 @@ fun main(args: Array<String>) {
             // get JDBC payload
             val hds = configuration.getHikariDatasource(cl.getOptionValue(DATASOURCE))
             val sql = cl.getOptionValue(SQL)
-            rowColsToPrint = mapOf(flight to configuration.primaryKeyColumns)
+            rowColsToPrint = flights.associateWith { configuration.primaryKeyColumns }
             val readRateLimit = if (cl.hasOption(READ_RATE_LIMIT)) {
                 cl.getOptionValue(READ_RATE_LIMIT).toInt()
             } else {
@@ -229,7 +266,7 @@ fun main(args: Array<String>) {
         ""
     }
 
-    val shuttleConfig = if (cl.hasOption(POSTGRES)) {
+    val loadedShuttleConfig = if (cl.hasOption(POSTGRES)) {
         val pgCfg = cl.getOptionValues(POSTGRES)
         require(pgCfg.size == 2) { "Must specify in format <bucket>,<region>" }
         val bucket = pgCfg[0]
@@ -242,6 +279,31 @@ fun main(args: Array<String>) {
         MissionParameters.empty()
     }
 
+    val shuttleConfig = loadedShuttleConfig.copy(
+            entityKeyIdCache = loadedShuttleConfig.entityKeyIdCache.copy(
+                    maximumSizeMb = cl.getOptionValue(EKID_CACHE_SIZE)?.toLong()
+                            ?: loadedShuttleConfig.entityKeyIdCache.maximumSizeMb,
+                    spillDirectory = cl.getOptionValue(EKID_CACHE_SPILL)
+                            ?: loadedShuttleConfig.entityKeyIdCache.spillDirectory,
+                    maxInFlightRequests = cl.getOptionValue(EKID_REQUESTS)?.toInt()
+                            ?: loadedShuttleConfig.entityKeyIdCache.maxInFlightRequests
+            ),
+            adaptiveBatching = loadedShuttleConfig.adaptiveBatching.copy(
+                    enabled = (loadedShuttleConfig.adaptiveBatching.enabled || cl.hasOption(ADAPTIVE_UPLOAD_SIZE)) &&
+                            !cl.hasOption(FIXED_UPLOAD_SIZE)
+            ),
+            parallelFlights = cl.getOptionValue(PARALLEL_FLIGHTS)?.toInt() ?: loadedShuttleConfig.parallelFlights,
+            execution = loadedShuttleConfig.execution.copy(
+                    ioThreads = cl.getOptionValue(THREADS)?.toInt() ?: loadedShuttleConfig.execution.ioThreads,
+                    virtualThreads = loadedShuttleConfig.execution.virtualThreads || cl.hasOption(VIRTUAL_THREADS)
+            ),
+            postgresDestination = loadedShuttleConfig.postgresDestination.copy(
+                    writeMode = cl.getOptionValue(POSTGRES_WRITE_MODE)
+                            ?.let { PostgresWriteMode.valueOf(it.toUpperCase()) }
+                            ?: loadedShuttleConfig.postgresDestination.writeMode
+            )
+    )
+
     //TODO: Use the right method to select the JWT token for the appropriate environment.
 
     val missionControl = when {
@@ -284,14 +346,41 @@ fun main(args: Array<String>) {
         DEFAULT_UPLOAD_SIZE
     }
 
+    if (cl.hasOption(RESUME) && !cl.hasOption(CHECKPOINT)) {
+        printErrorHelpAndExit("A checkpoint directory is required in order to resume.")
+    }
+
+    val checkpoints = if (cl.hasOption(CHECKPOINT)) {
+        FileCheckpointStore(Paths.get(cl.getOptionValue(CHECKPOINT)))
+    } else {
+        NoOpCheckpointStore
+    }
+
     val emailConfiguration = getEmailConfiguration(cl)
 
-    val flightPlan = mapOf(flight to payload)
+    val flightPlan = flights.associateWith { payload }
+
+    if (cl.hasOption(BENCHMARK)) {
+        val entityKeyIds = StubEntityKeyIdService(cl.getOptionValue(STUB_EKID_LATENCY)?.toLong() ?: 0L)
+        try {
+            logger.info("Preparing benchmark.")
+            val shuttle = missionControl.prepareBenchmark(flightPlan, entityKeyIds)
+            val result = ThroughputBenchmark(ShuttleMetrics.registry)
+                    .run(shuttle, payload as SyntheticPayload, uploadBatchSize)
+            logger.info("Benchmark complete. {} entity key id requests.\n{}", entityKeyIds.requestCount, result.format())
+            MissionControl.succeed()
+        } catch (ex: Throwable) {
+            MissionControl.fail(1, flight, ex)
+        }
+        return
+    }
 
     try {
         MissionControl.setEmailConfiguration(emailConfiguration)
         logger.info("Preparing flight plan.")
-        val shuttle = missionControl.prepare(flightPlan, createEntitySets, rowColsToPrint, contacts)
+        val shuttle = missionControl.prepare(
+                flightPlan, createEntitySets, rowColsToPrint, contacts, checkpoints, cl.hasOption(RESUME)
+        )
         logger.info("Pre-flight check list complete. ")
         shuttle.launch(uploadBatchSize)
         MissionControl.succeed()
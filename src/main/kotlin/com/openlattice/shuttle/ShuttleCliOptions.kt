@@ -57,6 +57,19 @@ class ShuttleCliOptions {
         const val SMTP_SERVER = "smtp-server"
         const val SMTP_SERVER_PORT = "smtp-server-port"
         const val THREADS = "threads"
+        const val VIRTUAL_THREADS = "virtual-threads"
+        const val POSTGRES_WRITE_MODE = "postgres-write-mode"
+        const val EKID_CACHE_SIZE = "ekid-cache-size"
+        const val EKID_CACHE_SPILL = "ekid-cache-spill"
+        const val EKID_REQUESTS = "ekid-requests"
+        const val FIXED_UPLOAD_SIZE = "fixed-upload-size"
+        const val ADAPTIVE_UPLOAD_SIZE = "adaptive-upload-size"
+        const val CHECKPOINT = "checkpoint"
+        const val RESUME = "resume"
+        const val PARALLEL_FLIGHTS = "parallel-flights"
+        const val BENCHMARK = "benchmark"
+        const val SYNTHETIC_COLUMNS = "synthetic-columns"
+        const val STUB_EKID_LATENCY = "stub-ekid-latency-ms"
         const val S3_ORIGIN_MAXIMUM_ARGS_COUNT = 4
         const val S3_ORIGIN_MINIMUM_ARGS_COUNT = 3
         const val LOCAL_ORIGIN_EXPECTED_ARGS_COUNT = 2
@@ -67,9 +80,10 @@ class ShuttleCliOptions {
 
         private val flightOption = Option.builder()
                 .longOpt(FLIGHT)
-                .desc("Attempt to load configuration from S3.")
-                .hasArg(true)
+                .desc("Flight file to run. Several comma separated flight files are run over a single read of the source.")
+                .hasArgs()
                 .argName("file")
+                .valueSeparator(',')
                 .build()
 
         private val fetchSize = Option.builder()
@@ -84,6 +98,38 @@ class ShuttleCliOptions {
                 .argName("upload size")
                 .build()
 
+        private val fixedUploadSize = Option.builder()
+                .longOpt(FIXED_UPLOAD_SIZE)
+                .desc("Keep the upload size fixed even if adaptive batching is enabled in the configuration.")
+                .hasArg(false)
+                .build()
+
+        private val adaptiveUploadSize = Option.builder()
+                .longOpt(ADAPTIVE_UPLOAD_SIZE)
+                .desc("Start from the upload size and adapt it to observed batch latency and heap headroom.")
+                .hasArg(false)
+                .build()
+
+        private val checkpointOption = Option.builder()
+                .longOpt(CHECKPOINT)
+                .desc("Directory in which to record how far each flight has been integrated.")
+                .hasArg()
+                .argName("directory")
+                .build()
+
+        private val resumeOption = Option.builder()
+                .longOpt(RESUME)
+                .desc("Resume flights from the checkpoints recorded in the checkpoint directory.")
+                .hasArg(false)
+                .build()
+
+        private val parallelFlightsOption = Option.builder()
+                .longOpt(PARALLEL_FLIGHTS)
+                .desc("Number of flights to integrate at the same time.")
+                .hasArg()
+                .argName("flights")
+                .build()
+
         private val readRateLimit = Option.builder()
                 .longOpt(READ_RATE_LIMIT)
                 .hasArg(true)
@@ -159,6 +205,28 @@ class ShuttleCliOptions {
                 .hasArg(false)
                 .build()
 
+        private val benchmarkOption = Option.builder()
+                .longOpt(BENCHMARK)
+                .desc("Benchmark the flight over this many synthetic rows without writing anything.")
+                .hasArg()
+                .argName("rows")
+                .build()
+
+        private val syntheticColumnsOption = Option.builder()
+                .longOpt(SYNTHETIC_COLUMNS)
+                .desc("Columns of the synthetic benchmark rows as comma separated name[:type[:cardinality[:width]]] " +
+                        "specifications. Types are string, integer, decimal, boolean, date and datetime.")
+                .hasArg()
+                .argName("columns")
+                .build()
+
+        private val stubEntityKeyIdLatencyOption = Option.builder()
+                .longOpt(STUB_EKID_LATENCY)
+                .desc("Simulated latency of each entity key id request when benchmarking.")
+                .hasArg()
+                .argName("milliseconds")
+                .build()
+
         private val sqlOption = Option.builder()
                 .longOpt(SQL)
                 .desc("SQL query to use for the flight.")
@@ -197,11 +265,44 @@ class ShuttleCliOptions {
 
         private val threadsOption = Option.builder()
                 .longOpt(THREADS)
-                .desc("Number of integration threads to use.")
+                .desc("Number of io threads used for entity key ids, uploads and destination writes.")
                 .hasArg()
                 .argName("threads")
                 .build()
 
+        private val virtualThreadsOption = Option.builder()
+                .longOpt(VIRTUAL_THREADS)
+                .desc("Run io on virtual threads, if the JVM supports them, with --threads limiting concurrent io.")
+                .build()
+
+        private val postgresWriteModeOption = Option.builder()
+                .longOpt(POSTGRES_WRITE_MODE)
+                .desc("How property values are written to postgres: batch (default) or copy.")
+                .hasArg()
+                .argName("mode")
+                .build()
+
+        private val entityKeyIdCacheSizeOption = Option.builder()
+                .longOpt(EKID_CACHE_SIZE)
+                .desc("Maximum size in megabytes of the local entity key id cache.")
+                .hasArg()
+                .argName("megabytes")
+                .build()
+
+        private val entityKeyIdCacheSpillOption = Option.builder()
+                .longOpt(EKID_CACHE_SPILL)
+                .desc("Directory used to spill entity key ids evicted from the local entity key id cache.")
+                .hasArg()
+                .argName("directory")
+                .build()
+
+        private val entityKeyIdRequestsOption = Option.builder()
+                .longOpt(EKID_REQUESTS)
+                .desc("Maximum number of entity key id requests in flight at the same time.")
+                .hasArg()
+                .argName("requests")
+                .build()
+
         private val profilesOption = Option.builder()
                 .longOpt(PROFILES)
                 .desc("Profiles to use when running shuttle service as a server.")
@@ -263,6 +364,13 @@ class ShuttleCliOptions {
                     .addOption(s3Option)
                     .addOption(fetchSize)
                     .addOption(uploadSize)
+                    .addOption(fixedUploadSize)
+                    .addOption(adaptiveUploadSize)
+                    .addOption(checkpointOption)
+                    .addOption(resumeOption)
+                    .addOption(parallelFlightsOption)
+                    .addOption(syntheticColumnsOption)
+                    .addOption(stubEntityKeyIdLatencyOption)
                     .addOption(readRateLimit)
                     .addOption(notificationEmailsOption)
                     .addOption(fromEmailOption)
@@ -271,6 +379,11 @@ class ShuttleCliOptions {
                     .addOption(smtpServerPortOption)
                     .addOption(postgresOption)
                     .addOption(threadsOption)
+                    .addOption(virtualThreadsOption)
+                    .addOption(postgresWriteModeOption)
+                    .addOption(entityKeyIdCacheSizeOption)
+                    .addOption(entityKeyIdCacheSpillOption)
+                    .addOption(entityKeyIdRequestsOption)
                     .addOption(serverOption)
 
             options.addOptionGroup(
@@ -278,6 +391,7 @@ class ShuttleCliOptions {
                             .addOption(sqlOption)
                             .addOption(csvOption)
                             .addOption(xmlOption)
+                            .addOption(benchmarkOption)
             )
 
             options.addOptionGroup(
@@ -11,6 +11,7 @@ import java.util.*
 const val SERVICE = "/shuttle"
 const val CONTROLLER = "/integration"
 const val BASE = SERVICE + CONTROLLER
+const val METRICS_CONTROLLER = "/metrics"
 
 const val DEFINITION_PATH = "/definition"
 const val STATUS_PATH = "/status"
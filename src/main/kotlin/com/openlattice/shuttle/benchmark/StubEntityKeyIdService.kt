@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmark
+
+import com.openlattice.data.EntityKey
+import java.nio.charset.StandardCharsets
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Hands out entity key ids locally instead of asking the server, for benchmarks that should not depend on the entity
+ * key id service.
+ *
+ * Ids are derived from the entity key, so the same key always gets the same id. Every request can be delayed by
+ * [latencyMillis] to simulate the round trip to the real service.
+ */
+class StubEntityKeyIdService(private val latencyMillis: Long = 0) {
+    private val requests = LongAdder()
+
+    val requestCount: Long
+        get() = requests.sum()
+
+    fun getEntityKeyIds(entityKeys: Set<EntityKey>): List<UUID> {
+        requests.increment()
+        if (latencyMillis > 0) {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis)
+        }
+        return entityKeys.map { entityKey ->
+            UUID.nameUUIDFromBytes("${entityKey.entitySetId}/${entityKey.entityId}".toByteArray(StandardCharsets.UTF_8))
+        }
+    }
+}
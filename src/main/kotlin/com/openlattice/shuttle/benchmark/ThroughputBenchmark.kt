@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.benchmark
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Snapshot
+import com.google.common.base.Stopwatch
+import com.openlattice.shuttle.Shuttle
+import com.openlattice.shuttle.payload.SyntheticPayload
+import java.util.concurrent.TimeUnit
+
+private val NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+
+/**
+ * Runs a [Shuttle] over a [SyntheticPayload] and measures end to end throughput along with the latency of every timed
+ * stage. The shuttle is expected to write to no-op destinations, so the numbers reflect reading, transforming and
+ * entity key id resolution only.
+ */
+class ThroughputBenchmark(private val registry: MetricRegistry) {
+
+    fun run(shuttle: Shuttle, payload: SyntheticPayload, uploadBatchSize: Int): BenchmarkResult {
+        val uploads = registry.meter(MetricRegistry.name(Shuttle::class.java, "uploads"))
+        val rowsBefore = payload.rowsGenerated
+        val entitiesBefore = uploads.count
+
+        val sw = Stopwatch.createStarted()
+        shuttle.launch(uploadBatchSize)
+        val elapsedMillis = sw.elapsed(TimeUnit.MILLISECONDS)
+
+        val latencies = registry.timers
+                .filterValues { it.count > 0 }
+                .mapValues { it.value.snapshot }
+                .toSortedMap()
+
+        return BenchmarkResult(
+                payload.rowsGenerated - rowsBefore,
+                uploads.count - entitiesBefore,
+                elapsedMillis,
+                latencies
+        )
+    }
+}
+
+/**
+ * @param entities Entities and associations whose entity key ids were resolved.
+ * @param latencies Snapshots of every timer that recorded at least one event, in nanoseconds.
+ */
+data class BenchmarkResult(
+        val rows: Long,
+        val entities: Long,
+        val elapsedMillis: Long,
+        val latencies: Map<String, Snapshot>
+) {
+    val rowsPerSecond: Double
+        get() = perSecond(rows)
+
+    val entitiesPerSecond: Double
+        get() = perSecond(entities)
+
+    private fun perSecond(count: Long): Double {
+        return if (elapsedMillis == 0L) 0.0 else count * 1000.0 / elapsedMillis
+    }
+
+    fun format(): String {
+        val report = StringBuilder()
+        report.append("Processed $rows rows and $entities entities in $elapsedMillis ms: ")
+        report.append(String.format("%.1f rows/s, %.1f entities/s%n", rowsPerSecond, entitiesPerSecond))
+        report.append(String.format("%-100s %10s %10s %10s %10s%n", "stage (ms)", "p50", "p95", "p99", "max"))
+        latencies.forEach { (name, snapshot) ->
+            report.append(
+                    String.format(
+                            "%-100s %10.2f %10.2f %10.2f %10.2f%n",
+                            name,
+                            snapshot.median / NANOS_PER_MILLI,
+                            snapshot.get95thPercentile() / NANOS_PER_MILLI,
+                            snapshot.get99thPercentile() / NANOS_PER_MILLI,
+                            snapshot.max / NANOS_PER_MILLI
+                    )
+            )
+        }
+        return report.toString()
+    }
+}
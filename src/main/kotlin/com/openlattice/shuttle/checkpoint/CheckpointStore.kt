@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.checkpoint
+
+/**
+ * Durable record of how far each flight has been integrated.
+ *
+ * A checkpoint is the number of payload rows, counted from the start of the payload, that belong to batches which
+ * have been fully written, with no unwritten batch before them. Resuming from a checkpoint never skips rows that were
+ * not integrated, although rows from batches that completed out of order may be integrated again.
+ */
+interface CheckpointStore {
+    /**
+     * @return The number of rows of [flightName] that were integrated, or null if there is no checkpoint.
+     */
+    fun load(flightName: String): Long?
+
+    fun save(flightName: String, rows: Long)
+
+    /**
+     * Removes the checkpoint of a flight that has completed.
+     */
+    fun clear(flightName: String)
+}
+
+object NoOpCheckpointStore : CheckpointStore {
+    override fun load(flightName: String): Long? = null
+
+    override fun save(flightName: String, rows: Long) {}
+
+    override fun clear(flightName: String) {}
+}
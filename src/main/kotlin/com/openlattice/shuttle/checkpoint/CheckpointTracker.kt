@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.checkpoint
+
+import java.util.*
+
+/**
+ * Tracks which batches of a flight have been written and advances the flight's checkpoint over the longest prefix of
+ * batches that have all been written.
+ *
+ * @param rows The checkpoint the flight started from.
+ */
+class CheckpointTracker(
+        private val store: CheckpointStore,
+        private val flightName: String,
+        rows: Long
+) {
+    private val outstanding = TreeMap<Long, Int>()
+    private val written = HashSet<Long>()
+
+    var rows: Long = rows
+        private set
+
+    @Synchronized
+    fun started(batchId: Long, rowCount: Int) {
+        outstanding[batchId] = rowCount
+    }
+
+    /**
+     * Marks a batch as written and saves the checkpoint if it moved.
+     */
+    @Synchronized
+    fun written(batchId: Long) {
+        written.add(batchId)
+
+        var advanced = false
+        while (outstanding.isNotEmpty() && written.remove(outstanding.firstKey())) {
+            rows += outstanding.pollFirstEntry().value
+            advanced = true
+        }
+
+        if (advanced) {
+            store.save(flightName, rows)
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.checkpoint
+
+import java.net.URLEncoder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * Keeps one checkpoint file per flight in [directory]. Files are replaced atomically, so a crash while saving leaves
+ * the previous checkpoint in place.
+ */
+class FileCheckpointStore(private val directory: Path) : CheckpointStore {
+
+    init {
+        Files.createDirectories(directory)
+    }
+
+    override fun load(flightName: String): Long? {
+        val path = pathOf(flightName)
+        return if (Files.exists(path)) String(Files.readAllBytes(path), Charsets.UTF_8).trim().toLong() else null
+    }
+
+    override fun save(flightName: String, rows: Long) {
+        val path = pathOf(flightName)
+        val tmp = Files.createTempFile(directory, path.fileName.toString(), ".tmp")
+        Files.write(tmp, rows.toString().toByteArray(Charsets.UTF_8))
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    override fun clear(flightName: String) {
+        Files.deleteIfExists(pathOf(flightName))
+    }
+
+    private fun pathOf(flightName: String): Path {
+        return directory.resolve(URLEncoder.encode(flightName, "UTF-8") + ".checkpoint")
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.checkpoint
+
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.map.IMap
+import java.util.*
+
+const val CHECKPOINTS_MAP = "SHUTTLE_CHECKPOINTS"
+
+/**
+ * Keeps checkpoints of an integration job in a Hazelcast map, keyed by job id and flight name, so that a job that is
+ * picked up again after a restart continues where it left off.
+ */
+class HazelcastCheckpointStore(hazelcastInstance: HazelcastInstance, private val jobId: UUID) : CheckpointStore {
+    private val checkpoints: IMap<String, Long> = hazelcastInstance.getMap(CHECKPOINTS_MAP)
+
+    override fun load(flightName: String): Long? {
+        return checkpoints[keyOf(flightName)]
+    }
+
+    override fun save(flightName: String, rows: Long) {
+        checkpoints.set(keyOf(flightName), rows)
+    }
+
+    override fun clear(flightName: String) {
+        checkpoints.delete(keyOf(flightName))
+    }
+
+    private fun keyOf(flightName: String): String {
+        return "$jobId/$flightName"
+    }
+}
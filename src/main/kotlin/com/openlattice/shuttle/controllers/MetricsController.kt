@@ -0,0 +1,34 @@
+package com.openlattice.shuttle.controllers
+
+import com.codahale.metrics.annotation.Timed
+import com.openlattice.authorization.AuthorizationManager
+import com.openlattice.authorization.AuthorizingComponent
+import com.openlattice.shuttle.api.METRICS_CONTROLLER
+import com.openlattice.shuttle.metrics.PrometheusTextFormat
+import com.openlattice.shuttle.metrics.ShuttleMetrics
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RestController
+import javax.inject.Inject
+
+/**
+ * Serves the integration metrics of this shuttle server in the Prometheus text format.
+ */
+@RestController
+@RequestMapping(METRICS_CONTROLLER)
+class MetricsController : AuthorizingComponent {
+
+    @Inject
+    private lateinit var authorizationManager: AuthorizationManager
+
+    @Timed
+    @GetMapping(produces = [PrometheusTextFormat.CONTENT_TYPE])
+    fun scrape(): String {
+        ensureAdminAccess()
+        return PrometheusTextFormat.format(ShuttleMetrics.registry)
+    }
+
+    override fun getAuthorizationManager(): AuthorizationManager {
+        return authorizationManager
+    }
+}
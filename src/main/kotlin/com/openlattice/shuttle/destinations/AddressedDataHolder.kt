@@ -21,8 +21,11 @@
 
 package com.openlattice.shuttle.destinations
 
+import com.openlattice.data.EntityKey
+import com.openlattice.data.UpdateType
 import com.openlattice.data.integration.Association
 import com.openlattice.data.integration.Entity
+import java.util.*
 
 /**
  *
@@ -32,4 +35,81 @@ data class AddressedDataHolder(
         val entities: MutableMap<StorageDestination, MutableSet<Entity>>,
         val associations: MutableMap<StorageDestination, MutableSet<Association>>,
         val batchId: Long
-)
+) {
+    /**
+     * Appends the entities and associations of [other] after the ones already held, preserving encounter order.
+     *
+     * @return this holder
+     */
+    fun absorb(other: AddressedDataHolder): AddressedDataHolder {
+        other.entities.forEach { (storageDestination, data) ->
+            entities.getOrPut(storageDestination) { mutableSetOf() }.addAll(data)
+        }
+        other.associations.forEach { (storageDestination, data) ->
+            associations.getOrPut(storageDestination) { mutableSetOf() }.addAll(data)
+        }
+        return this
+    }
+
+    /**
+     * Folds entities that share an [EntityKey] within each destination into a single entity, so repetitive sources
+     * write one row per entity per batch. Values are folded in encounter order following the update type of the
+     * entity set, which gives the same end state as writing the entities one after the other:
+     *
+     * - [UpdateType.Merge] takes the union of the values of every property.
+     * - [UpdateType.PartialReplace] keeps the values of the last entity that has a given property.
+     * - [UpdateType.Replace] keeps the last entity.
+     *
+     * @param updateTypes Update type by entity set id. Entity sets without an update type are merged.
+     * @return The number of entities that were folded into another entity.
+     */
+    fun mergeEntities(updateTypes: Map<UUID, UpdateType>): Int {
+        var folded = 0
+        entities.replaceAll { _, data ->
+            val merged = mergeEntities(data, updateTypes)
+            folded += data.size - merged.size
+            merged
+        }
+        return folded
+    }
+
+    private fun mergeEntities(data: MutableSet<Entity>, updateTypes: Map<UUID, UpdateType>): MutableSet<Entity> {
+        if (data.size < 2) {
+            return data
+        }
+
+        val firstSeen = LinkedHashMap<EntityKey, Entity>(data.size * 4 / 3 + 1)
+        val foldedDetails = HashMap<EntityKey, MutableMap<UUID, MutableSet<Any>>>()
+
+        data.forEach { entity ->
+            val first = firstSeen.putIfAbsent(entity.key, entity) ?: return@forEach
+            val details = foldedDetails.getOrPut(entity.key) { copyDetails(first.details) }
+
+            when (updateTypes[entity.entitySetId] ?: UpdateType.Merge) {
+                UpdateType.Replace -> {
+                    details.clear()
+                    details.putAll(copyDetails(entity.details))
+                }
+                UpdateType.PartialReplace -> entity.details.forEach { (propertyTypeId, values) ->
+                    details[propertyTypeId] = LinkedHashSet(values)
+                }
+                else -> entity.details.forEach { (propertyTypeId, values) ->
+                    details.getOrPut(propertyTypeId) { LinkedHashSet(values.size) }.addAll(values)
+                }
+            }
+        }
+
+        if (foldedDetails.isEmpty()) {
+            return data
+        }
+
+        return firstSeen.values.mapTo(LinkedHashSet(firstSeen.size * 4 / 3 + 1)) { entity ->
+            val details = foldedDetails[entity.key]
+            if (details == null) entity else Entity(entity.key, details)
+        }
+    }
+
+    private fun copyDetails(details: Map<UUID, Set<Any>>): MutableMap<UUID, MutableSet<Any>> {
+        return details.mapValuesTo(LinkedHashMap<UUID, MutableSet<Any>>(details.size * 4 / 3 + 1)) { LinkedHashSet(it.value) }
+    }
+}
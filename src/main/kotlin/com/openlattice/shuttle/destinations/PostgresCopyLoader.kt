@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.destinations
+
+import com.openlattice.data.storage.upsertPropertyValueSql
+import com.openlattice.data.util.PostgresDataHasher
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.HASH
+import com.openlattice.postgres.PostgresColumn.ID_VALUE
+import com.openlattice.postgres.PostgresColumn.LAST_WRITE
+import com.openlattice.postgres.PostgresColumn.PARTITION
+import com.openlattice.postgres.PostgresColumn.PROPERTY_TYPE_ID
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresColumn.VERSIONS
+import com.openlattice.postgres.PostgresDataTables
+import com.openlattice.postgres.PostgresTable.DATA
+import org.postgresql.PGConnection
+import org.postgresql.copy.CopyIn
+import java.nio.charset.StandardCharsets
+import java.sql.Connection
+import java.util.*
+
+private const val STAGED_VALUE = "value"
+private const val COPY_CHUNK_SIZE = 64 * 1024
+private val STAGED_COLUMNS = listOf(ENTITY_SET_ID, ID_VALUE, PARTITION, PROPERTY_TYPE_ID, HASH).map { it.name }
+private val HEX = "0123456789abcdef".toCharArray()
+
+/**
+ * Writes property values for [PostgresWriteMode.COPY].
+ *
+ * Values are grouped by the data table column they are stored in. Each group is streamed with a text format COPY into
+ * a temporary staging table of the connection and then merged into the data table with a single upsert that appends
+ * the write version to the version array the same way the per value upsert does.
+ */
+internal class PostgresCopyLoader(private val propertyTypes: Map<UUID, PropertyType>) {
+
+    /**
+     * Staging tables are created through [statements], so each is only created the first time the physical connection
+     * behind [connection] stages values for its column.
+     *
+     * @return The number of property values that were inserted or updated.
+     */
+    fun upsert(
+            connection: Connection,
+            statements: StatementCache.ConnectionStatements,
+            entitySetId: UUID,
+            partition: Int,
+            entities: Map<UUID, Map<UUID, Set<Any>>>,
+            versionArray: java.sql.Array,
+            version: Long
+    ): Long {
+        entities.forEach { (entityKeyId, entityData) ->
+            if (!propertyTypes.keys.containsAll(entityData.keys)) {
+                abortInsert(entitySetId, entityKeyId)
+            }
+        }
+
+        val propertyTypeIdsByColumn = entities.values
+                .flatMapTo(mutableSetOf()) { it.keys }
+                .groupBy { propertyTypeId -> storageColumn(propertyTypes.getValue(propertyTypeId)) }
+
+        return propertyTypeIdsByColumn.map { (column, propertyTypeIds) ->
+            val staging = stagingTable(column)
+            statements.createTemporaryTable(staging, createStagingTableSql(staging, column))
+            connection.createStatement().use { statement -> statement.execute("TRUNCATE $staging") }
+            copy(connection, staging, entitySetId, partition, entities, propertyTypeIds.toSet())
+            val upsertSql = upsertPropertyValueSql(propertyTypes.getValue(propertyTypeIds.first()))
+            connection.prepareStatement(mergeSql(staging, column, upsertSql)).use { merge ->
+                merge.setLong(1, version)
+                merge.setArray(2, versionArray)
+                merge.executeUpdate().toLong()
+            }
+        }.sum()
+    }
+
+    private fun copy(
+            connection: Connection,
+            staging: String,
+            entitySetId: UUID,
+            partition: Int,
+            entities: Map<UUID, Map<UUID, Set<Any>>>,
+            propertyTypeIds: Set<UUID>
+    ) {
+        val copyIn = connection.unwrap(PGConnection::class.java).copyAPI.copyIn(
+                "COPY $staging (${(STAGED_COLUMNS + STAGED_VALUE).joinToString(",")}) FROM STDIN"
+        )
+        try {
+            val line = StringBuilder()
+            val buffer = StringBuilder(COPY_CHUNK_SIZE)
+            entities.forEach { (entityKeyId, entityData) ->
+                entityData.forEach { (propertyTypeId, values) ->
+                    if (propertyTypeId in propertyTypeIds) {
+                        val dataType = propertyTypes.getValue(propertyTypeId).datatype
+                        values.forEach { value ->
+                            line.setLength(0)
+                            line.append(entitySetId).append('\t')
+                                    .append(entityKeyId).append('\t')
+                                    .append(partition).append('\t')
+                                    .append(propertyTypeId).append('\t')
+                            appendBytea(line, PostgresDataHasher.hashObject(value, dataType))
+                            line.append('\t')
+                            appendValue(line, value)
+                            line.append('\n')
+                            buffer.append(line)
+                            if (buffer.length >= COPY_CHUNK_SIZE) {
+                                flush(copyIn, buffer)
+                            }
+                        }
+                    }
+                }
+            }
+            flush(copyIn, buffer)
+            copyIn.endCopy()
+        } finally {
+            if (copyIn.isActive) {
+                copyIn.cancelCopy()
+            }
+        }
+    }
+
+    private fun flush(copyIn: CopyIn, buffer: StringBuilder) {
+        val bytes = buffer.toString().toByteArray(StandardCharsets.UTF_8)
+        copyIn.writeToCopy(bytes, 0, bytes.size)
+        buffer.setLength(0)
+    }
+
+}
+
+internal fun storageColumn(propertyType: PropertyType): String {
+    return PostgresDataTables.getColumnDefinition(propertyType.postgresIndexType, propertyType.datatype).name
+}
+
+/**
+ * Every connection gets one staging table per data table column. It is a temporary table, so it is private to the
+ * connection's session and dropped by postgres when the session ends, whatever happens to shuttle in between.
+ */
+internal fun stagingTable(column: String): String {
+    return "shuttle_staging_$column"
+}
+
+/**
+ * The staging table takes its column types from the data table, so values are parsed by Postgres exactly as they
+ * would be when bound to the per value upsert. It is only created the first time a connection stages values for
+ * [column] and truncated before every later use.
+ */
+internal fun createStagingTableSql(staging: String, column: String): String {
+    return "CREATE TEMPORARY TABLE IF NOT EXISTS $staging AS " +
+            "SELECT ${STAGED_COLUMNS.joinToString(",")},$column AS $STAGED_VALUE FROM ${DATA.name} WITH NO DATA"
+}
+
+/**
+ * Merges the staging table into the data table with the conflict handling of [upsertSql], the per value upsert for
+ * the same column, so that both write modes resolve conflicts, append versions and update the last write the same way.
+ * Rows with the same key are collapsed before merging, since an upsert may not touch the same row twice.
+ */
+internal fun mergeSql(staging: String, column: String, upsertSql: String): String {
+    val conflict = upsertSql.indexOf("ON CONFLICT", ignoreCase = true)
+    check(conflict >= 0) { "Expected the property value upsert to handle conflicts, but got: $upsertSql" }
+
+    val stagedColumns = STAGED_COLUMNS.joinToString(",")
+    return "INSERT INTO ${DATA.name} ($stagedColumns,${LAST_WRITE.name},${VERSION.name},${VERSIONS.name},$column) " +
+            "SELECT DISTINCT ON ($stagedColumns) $stagedColumns,now(),?,?,$STAGED_VALUE FROM $staging " +
+            upsertSql.substring(conflict)
+}
+
+/**
+ * Appends [value] in the COPY text format, escaping the characters that delimit fields and rows.
+ */
+internal fun appendValue(line: StringBuilder, value: Any) {
+    if (value is ByteArray) {
+        appendBytea(line, value)
+        return
+    }
+
+    val text = value.toString()
+    for (c in text) {
+        when (c) {
+            '\\' -> line.append("\\\\")
+            '\t' -> line.append("\\t")
+            '\n' -> line.append("\\n")
+            '\r' -> line.append("\\r")
+            else -> line.append(c)
+        }
+    }
+}
+
+/**
+ * Appends [bytes] as a hex bytea literal, with its backslash escaped for the COPY text format.
+ */
+internal fun appendBytea(line: StringBuilder, bytes: ByteArray) {
+    line.append("\\\\x")
+    bytes.forEach { byte ->
+        val b = byte.toInt()
+        line.append(HEX[(b shr 4) and 0xF]).append(HEX[b and 0xF])
+    }
+}
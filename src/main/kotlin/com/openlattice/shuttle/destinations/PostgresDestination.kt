@@ -21,10 +21,9 @@
 
 package com.openlattice.shuttle.destinations
 
-import com.dataloom.mappers.ObjectMappers
-import com.fasterxml.jackson.module.kotlin.readValue
 import com.google.common.base.Stopwatch
 import com.google.common.collect.ImmutableList
+import com.google.common.util.concurrent.Futures
 import com.openlattice.data.DataEdgeKey
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.EntityKey
@@ -41,15 +40,22 @@ import com.openlattice.edm.type.EntityType
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.graph.EDGES_UPSERT_SQL
 import com.openlattice.graph.bindColumnsForEdge
-import com.openlattice.postgres.JsonDeserializer
 import com.openlattice.postgres.PostgresArrays
+import com.openlattice.shuttle.PostgresDestinationConfiguration
+import com.openlattice.shuttle.metrics.ShuttleMetrics
+import com.openlattice.shuttle.pipeline.ExecutionRuntime
+import com.openlattice.shuttle.pipeline.PipelineStage
+import com.zaxxer.hikari.HikariConfig
 import com.zaxxer.hikari.HikariDataSource
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.slf4j.LoggerFactory
+import java.io.Closeable
 import java.security.InvalidParameterException
 import java.sql.Connection
 import java.sql.PreparedStatement
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.TimeUnit
 
 /**
@@ -60,11 +66,58 @@ class PostgresDestination(
         private val entitySets: Map<UUID, EntitySet>,
         private val entityTypes: Map<UUID, EntityType>,
         private val propertyTypes: Map<UUID, PropertyType>,
-        private val hds: HikariDataSource
-) : IntegrationDestination {
+        private val hds: HikariDataSource,
+        private val configuration: PostgresDestinationConfiguration = PostgresDestinationConfiguration(),
+        runtime: ExecutionRuntime? = null
+) : IntegrationDestination, Closeable {
     companion object {
         private val logger = LoggerFactory.getLogger(PostgresDestination::class.java)
-        private val mapper = ObjectMappers.newJsonMapper()
+
+        /**
+         * Driver settings that let pgjdbc keep server side prepared statements for the SQL templates used when
+         * writing, unless the postgres configuration already sets them.
+         */
+        private val preparedStatementDefaults = mapOf(
+                "dataSource.prepareThreshold" to "1",
+                "dataSource.preparedStatementCacheQueries" to "512",
+                "dataSource.preparedStatementCacheSizeMiB" to "16"
+        )
+
+        /**
+         * @return A connection pool for writing to postgres with [config], with prepared statement caching enabled.
+         */
+        @JvmStatic
+        fun dataSource(config: Properties): HikariDataSource {
+            val properties = Properties()
+            properties.putAll(config)
+            preparedStatementDefaults.forEach { (key, value) ->
+                if (!properties.containsKey(key)) {
+                    properties.setProperty(key, value)
+                }
+            }
+            return HikariDataSource(HikariConfig(properties))
+        }
+    }
+
+    private val copyLoader = PostgresCopyLoader(propertyTypes)
+    private val statementCache = StatementCache()
+    private val tombstoneSql = updateVersionsForPropertyTypesInEntitiesInEntitySet()
+    private val upsertPropertyValueSqls = ConcurrentHashMap<UUID, String>()
+    private val normalizer = TypedNormalizer(propertyTypes)
+    private val partitionParallelism = configuration.partitionParallelism.coerceIn(1, hds.maximumPoolSize)
+
+    /**
+     * Writes partitions when a batch spans more than one, on the partition pool of the [ExecutionRuntime] shared by
+     * every integration, taking no more of it than one integration may use. Without a runtime partitions are written
+     * one at a time.
+     */
+    private val partitionStage = runtime?.let {
+        PipelineStage(
+                "partitions",
+                it.partitionExecutor,
+                minOf(partitionParallelism, it.quota(it.ioThreads)),
+                ShuttleMetrics.registry
+        )
     }
 
     override fun integrateEntities(
@@ -72,111 +125,110 @@ class PostgresDestination(
             entityKeyIds: Map<EntityKey, UUID>,
             updateTypes: Map<UUID, UpdateType>
     ): Long {
+        val sw = Stopwatch.createStarted()
+        val writes = planPartitionWrites(
+                data.groupBy({ it.entitySetId }, { normalize(entityKeyIds, it) }),
+                updateTypes,
+                entitySets,
+                entityTypes,
+                propertyTypes
+        )
 
+        val count = if (writes.size <= 1 || partitionStage == null || partitionParallelism <= 1) {
+            writes.map(this::writePartition).sum()
+        } else {
+            writeConcurrently(partitionStage, writes, this::writePartition)
+        }
+
+        logger.info(
+                "Integrated ${data.size} entities and update $count rows in ${writes.size} partitions in ${sw.elapsed(
+                        TimeUnit.MILLISECONDS
+                )} ms."
+        )
+        return data.size.toLong()
+    }
+
+    /**
+     * Writes the entities of a single partition of an entity set on a connection of its own, so that partitions can be
+     * written concurrently. Statements are taken from the [statementCache] and dropped if the write fails.
+     */
+    private fun writePartition(write: PartitionWrite): Long {
         return hds.connection.use { connection ->
-            val sw = Stopwatch.createStarted()
-            val upsertPropertyValues = mutableMapOf<UUID, PreparedStatement>()
-            val updatePropertyValueVersion = connection.prepareStatement(
-                    updateVersionsForPropertyTypesInEntitiesInEntitySet()
+            try {
+                writePartition(connection, statementCache.forConnection(connection), write)
+            } catch (ex: Exception) {
+                statementCache.invalidate(connection)
+                throw ex
+            }
+        }
+    }
+
+    private fun writePartition(
+            connection: Connection,
+            statements: StatementCache.ConnectionStatements,
+            write: PartitionWrite
+    ): Long {
+        val entitySet = write.entitySet
+        val entitySetId = entitySet.id
+        val partition = write.partition
+        val entityMap = write.entities
+
+        val partSw = Stopwatch.createStarted()
+        val writeVersionArray = PostgresArrays.createLongArray(connection, write.writeVersion)
+
+        when (write.updateType) {
+            UpdateType.Replace, UpdateType.PartialReplace -> tombstone(
+                    statements.prepare(tombstoneSql),
+                    entitySet,
+                    PostgresArrays.createUuidArray(connection, entityMap.keys),
+                    PostgresArrays.createIntArray(connection, listOf(partition)),
+                    PostgresArrays.createUuidArray(connection, write.tombstonedPropertyTypeIds),
+                    write.tombstoneVersion
             )
-            val count = data
-                    .groupBy({ it.entitySetId }, { normalize(entityKeyIds, it) })
-                    .map { (entitySetId, entities) ->
-                        logger.info("Integrating entity set {}", entitySets.getValue(entitySetId).name)
-                        val esSw = Stopwatch.createStarted()
-                        val entitySet = entitySets.getValue(entitySetId)
-
-                        val partitions = entitySet.partitions.toList()
-
-                        val baseVersion = System.currentTimeMillis()
-                        val tombstoneVersion = baseVersion
-                        val writeVersion = baseVersion + 1
-                        val relevantPropertyTypes = entityTypes
-                                .getValue(entitySets.getValue(entitySetId).entityTypeId)
-                                .properties
-                                .associateWith(propertyTypes::getValue)
-                        val propertyTypeIdsArr = when (updateTypes.getValue(entitySetId)) {
-                            UpdateType.Replace -> PostgresArrays.createUuidArray(connection, relevantPropertyTypes.keys)
-                            UpdateType.PartialReplace -> PostgresArrays.createUuidArray(
-                                    connection, data.flatMap { it.details.keys }.toSet()
-                            )
-                            else -> PostgresArrays.createUuidArray(connection, setOf())
-                        }
-
-                        val writeVersionArray = PostgresArrays.createLongArray(connection, writeVersion)
-                        logger.info(
-                                "Preparing queries for entity set {} took {} ms",
-                                entitySets.getValue(entitySetId).name,
-                                esSw.elapsed(TimeUnit.MILLISECONDS)
-                        )
-                        val esCount = entities.groupBy { getPartition(it.first, partitions) }
-                                .toSortedMap()
-                                .map { (partition, entityPairs) ->
-                                    val partSw = Stopwatch.createStarted()
-                                    val entityMap = entityPairs.toMap()
-                                    val entityKeyIdsArr = PostgresArrays.createUuidArray(connection, entityMap.keys)
-                                    val partitionArr = PostgresArrays.createIntArray(connection, listOf(partition))
-
-                                    when (updateTypes.getValue(entitySetId)) {
-                                        UpdateType.Replace, UpdateType.PartialReplace -> tombstone(
-                                                updatePropertyValueVersion,
-                                                entitySet,
-                                                entityKeyIdsArr,
-                                                partitionArr,
-                                                propertyTypeIdsArr,
-                                                tombstoneVersion
-                                        )
-                                    }
-
-                                    val committedProperties = upsertEntities(
-                                            connection,
-                                            upsertPropertyValues,
-                                            entitySet,
-                                            partition,
-                                            entityMap,
-                                            relevantPropertyTypes,
-                                            writeVersionArray,
-                                            writeVersion
-                                    )
-
-                                    logger.info(
-                                            "Upserted $committedProperties properties for partition $partition and entity set {} in {} ms ",
-                                            partition,
-
-                                            partSw.elapsed(TimeUnit.MILLISECONDS)
-                                    )
-
-                                    commitEntities(
-                                            connection,
-                                            entitySetId,
-                                            partition,
-                                            entityMap.keys,
-                                            writeVersionArray,
-                                            writeVersion
-                                    )
-                                    val committed = entityMap.size.toLong()
-                                    logger.info(
-                                            "Integrated $committed entities and $committedProperties properties for partition $partition and entity set {} in {} ms",
-                                            entitySets.getValue(entitySetId).name,
-                                            partSw.elapsed(TimeUnit.MILLISECONDS)
-                                    )
-                                    committed
-                                }.sum()
-                        logger.info(
-                                "Integrated $esCount entities for entity set {} in {} ms",
-                                entitySets.getValue(entitySetId).name,
-                                esSw.elapsed(TimeUnit.MILLISECONDS)
-                        )
-                        esCount
-                    }.sum()
-
-            logger.info(
-                    "Integrated ${data.size} entities and update $count rows in ${sw.elapsed(
-                            TimeUnit.MILLISECONDS
-                    )} ms."
+        }
+
+        val committedProperties = when (configuration.writeMode) {
+            PostgresWriteMode.BATCH -> upsertEntities(
+                    statements,
+                    entitySet,
+                    partition,
+                    entityMap,
+                    write.propertyTypes,
+                    writeVersionArray,
+                    write.writeVersion
+            )
+            PostgresWriteMode.COPY -> copyLoader.upsert(
+                    connection,
+                    statements,
+                    entitySetId,
+                    partition,
+                    entityMap,
+                    writeVersionArray,
+                    write.writeVersion
             )
-            data.size.toLong()
         }
+
+        logger.info(
+                "Upserted $committedProperties properties for partition $partition and entity set {} in {} ms ",
+                entitySet.name,
+                partSw.elapsed(TimeUnit.MILLISECONDS)
+        )
+
+        commitEntities(
+                statements,
+                entitySetId,
+                partition,
+                entityMap.keys,
+                writeVersionArray,
+                write.writeVersion
+        )
+        val committed = entityMap.size.toLong()
+        logger.info(
+                "Integrated $committed entities and $committedProperties properties for partition $partition and entity set {} in {} ms",
+                entitySet.name,
+                partSw.elapsed(TimeUnit.MILLISECONDS)
+        )
+        return committed
     }
 
     override fun integrateAssociations(
@@ -206,6 +258,14 @@ class PostgresDestination(
         return StorageDestination.POSTGRES
     }
 
+    /**
+     * Closes the statements cached for this destination's connections. The connection pool is left open, since it is
+     * not owned by the destination.
+     */
+    override fun close() {
+        statementCache.close()
+    }
+
     internal fun createEdges(keys: Set<DataEdgeKey>): Long {
         val partitionsByEntitySet = keys
                 .flatMap { listOf(it.src.entitySetId, it.dst.entitySetId, it.edge.entitySetId) }
@@ -230,17 +290,13 @@ class PostgresDestination(
 
     private fun normalize(entityKeyIds: Map<EntityKey, UUID>, entity: Entity): Pair<UUID, Map<UUID, Set<Any>>> {
         val sw = Stopwatch.createStarted()
-        val propertyValues = mapper.readValue<Map<UUID, Set<Any>>>(mapper.writeValueAsBytes(entity.details))
-        val validatedPropertyValues = JsonDeserializer.validateFormatAndNormalize(propertyValues, propertyTypes) {
-            "Error validating during integration"
-        }
+        val validatedPropertyValues = normalizer.normalize(entity.details)
         logger.debug("Normalizing took {} ms", sw.elapsed(TimeUnit.MILLISECONDS))
         return entityKeyIds.getValue(entity.key) to validatedPropertyValues
     }
 
     private fun upsertEntities(
-            connection: Connection,
-            upsertPropertyValues: MutableMap<UUID, PreparedStatement>,
+            statements: StatementCache.ConnectionStatements,
             entitySet: EntitySet,
             partition: Int,
             entities: Map<UUID, Map<UUID, Set<Any>>>,
@@ -258,18 +314,18 @@ class PostgresDestination(
          */
 
         //Update property values. We use multiple prepared statements in batch while re-using ARRAY[version].
-
-
-        return entities.entries.map { (entityKeyId, entityData) ->
-            entityData.map { (propertyTypeId, values) ->
-                val upsertPropertyValue = upsertPropertyValues.getOrPut(propertyTypeId) {
-                    val pt = propertyTypes[propertyTypeId] ?: abortInsert(entitySetId, entityKeyId)
-                    connection.prepareStatement(upsertPropertyValueSql(pt))
-                }
-
-                values.map { value ->
-                    val dataType = propertyTypes.getValue(propertyTypeId).datatype
-
+        //Batches span entities and are only sent when full or once the whole partition has been bound.
+
+        val batcher = StatementBatcher(configuration.maxStatementsPerBatch)
+        entities.forEach { (entityKeyId, entityData) ->
+            entityData.forEach { (propertyTypeId, values) ->
+                val pt = propertyTypes[propertyTypeId] ?: abortInsert(entitySetId, entityKeyId)
+                val upsertPropertyValue = statements.prepare(
+                        upsertPropertyValueSqls.computeIfAbsent(propertyTypeId) { upsertPropertyValueSql(pt) }
+                )
+                val dataType = propertyTypes.getValue(propertyTypeId).datatype
+
+                values.forEach { value ->
                     val (propertyHash, insertValue) = getPropertyHash(
                             value,
                             dataType
@@ -283,11 +339,14 @@ class PostgresDestination(
                     upsertPropertyValue.setObject(6, version)
                     upsertPropertyValue.setArray(7, versionArray)
                     upsertPropertyValue.setObject(8, insertValue)
-                    upsertPropertyValue.addBatch()
+                    batcher.add(upsertPropertyValue)
                 }
             }
-            upsertPropertyValues.values.map { it.executeBatch().sum().toLong() }.sum()
-        }.sum()
+        }
+
+        val updated = batcher.flush()
+        logger.debug("Upserted {} property values in {} round trips.", updated, batcher.roundTrips)
+        return updated
     }
 
     private fun tombstone(
@@ -315,7 +374,7 @@ class PostgresDestination(
     }
 
     private fun commitEntities(
-            connection: Connection,
+            statements: StatementCache.ConnectionStatements,
             entitySetId: UUID,
             partition: Int,
             entityKeyIds: Set<UUID>,
@@ -323,7 +382,8 @@ class PostgresDestination(
             version: Long
     ): Int {
 
-            val ps = connection.prepareStatement(updateEntitySql)
+            val ps = statements.prepare(updateEntitySql)
+            val batcher = StatementBatcher(configuration.maxStatementsPerBatch)
 
             entityKeyIds.sorted().forEach { entityKeyId ->
                 ps.setArray(1, versionArray)
@@ -332,9 +392,9 @@ class PostgresDestination(
                 ps.setObject(4, entitySetId)
                 ps.setObject(5, entityKeyId)
                 ps.setInt(6, partition)
-                ps.addBatch()
+                batcher.add(ps)
             }
-            val numUpdates = ps.executeBatch().sum()
+            val numUpdates = batcher.flush().toInt()
 
             logger.info("Updated $numUpdates entities as part of insert.")
             return numUpdates
@@ -348,7 +408,92 @@ class PostgresDestination(
     }
 }
 
-private fun abortInsert(entitySetId: UUID, entityKeyId: UUID): Nothing {
+/**
+ * The entities of one partition of an entity set along with what is needed to write them.
+ */
+internal class PartitionWrite(
+        val entitySet: EntitySet,
+        val partition: Int,
+        val entities: Map<UUID, Map<UUID, Set<Any>>>,
+        val updateType: UpdateType,
+        val propertyTypes: Map<UUID, PropertyType>,
+        val tombstonedPropertyTypeIds: Set<UUID>,
+        val tombstoneVersion: Long,
+        val writeVersion: Long
+)
+
+/**
+ * Splits normalized entities into one write per partition of each entity set, in partition order.
+ *
+ * Every partition of an entity set shares the versions taken from [clock] for that entity set, so that a write split
+ * across partitions still tombstones and writes with a single version. Replace tombstones every property of the entity
+ * type, while PartialReplace only tombstones the properties present in the batch.
+ */
+internal fun planPartitionWrites(
+        entitiesByEntitySet: Map<UUID, List<Pair<UUID, Map<UUID, Set<Any>>>>>,
+        updateTypes: Map<UUID, UpdateType>,
+        entitySets: Map<UUID, EntitySet>,
+        entityTypes: Map<UUID, EntityType>,
+        propertyTypes: Map<UUID, PropertyType>,
+        clock: () -> Long = System::currentTimeMillis
+): List<PartitionWrite> {
+    val batchPropertyTypeIds by lazy {
+        entitiesByEntitySet.values.flatMapTo(mutableSetOf()) { entities -> entities.flatMap { it.second.keys } }
+    }
+
+    return entitiesByEntitySet.flatMap { (entitySetId, entities) ->
+        val entitySet = entitySets.getValue(entitySetId)
+        val partitions = entitySet.partitions.toList()
+        val updateType = updateTypes.getValue(entitySetId)
+
+        val baseVersion = clock()
+        val relevantPropertyTypes = entityTypes
+                .getValue(entitySet.entityTypeId)
+                .properties
+                .associateWith(propertyTypes::getValue)
+        val tombstonedPropertyTypeIds = when (updateType) {
+            UpdateType.Replace -> relevantPropertyTypes.keys
+            UpdateType.PartialReplace -> batchPropertyTypeIds
+            else -> setOf()
+        }
+
+        entities.groupBy { getPartition(it.first, partitions) }
+                .toSortedMap()
+                .map { (partition, entityPairs) ->
+                    PartitionWrite(
+                            entitySet,
+                            partition,
+                            entityPairs.toMap(),
+                            updateType,
+                            relevantPropertyTypes,
+                            tombstonedPropertyTypeIds,
+                            baseVersion,
+                            baseVersion + 1
+                    )
+                }
+    }
+}
+
+/**
+ * Runs [write] for every element of [writes] on [stage] and waits for all of them. Submitting blocks while [stage] is
+ * full, so the caller must not run on the stage's own pool.
+ *
+ * @return The sum of the counts returned by [write].
+ * @throws Exception The exception thrown by the first write that failed, rather than the ExecutionException wrapping it.
+ */
+internal fun <T> writeConcurrently(
+        stage: PipelineStage,
+        writes: List<T>,
+        write: (T) -> Long
+): Long {
+    return try {
+        Futures.allAsList(writes.map { stage.submit { write(it) } }).get().sum()
+    } catch (ex: ExecutionException) {
+        throw ex.cause ?: ex
+    }
+}
+
+internal fun abortInsert(entitySetId: UUID, entityKeyId: UUID): Nothing {
     throw InvalidParameterException(
             "Cannot insert property type not in authorized property types for entity $entityKeyId from entity set $entitySetId."
     )
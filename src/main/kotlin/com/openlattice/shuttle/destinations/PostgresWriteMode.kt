@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.destinations
+
+/**
+ * How [PostgresDestination] writes property values.
+ */
+enum class PostgresWriteMode {
+    /**
+     * One upsert per property value, sent in JDBC batches.
+     */
+    BATCH,
+
+    /**
+     * Property values are streamed with COPY into a temporary staging table of the connection and merged with one
+     * upsert per column. Each connection creates its staging tables once and truncates them before every later use.
+     */
+    COPY
+}
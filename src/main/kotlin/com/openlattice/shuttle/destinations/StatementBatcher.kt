@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.destinations
+
+import java.sql.PreparedStatement
+import java.util.*
+
+/**
+ * Collects rows for one or more prepared statements across entities and sends them in as few round trips as possible.
+ *
+ * Rows are only sent once a statement has [maxStatementsPerBatch] of them pending or when [flush] is called, so a
+ * partition with thousands of entities costs a handful of round trips per property type instead of one per entity.
+ */
+internal class StatementBatcher(private val maxStatementsPerBatch: Int) {
+    private val pending = IdentityHashMap<PreparedStatement, Int>()
+
+    init {
+        require(maxStatementsPerBatch > 0) {
+            "Maximum statements per batch must be positive, but got $maxStatementsPerBatch."
+        }
+    }
+
+    /**
+     * Number of times a batch was sent to the database.
+     */
+    var roundTrips = 0L
+        private set
+
+    /**
+     * Number of rows reported as updated by the batches sent so far.
+     */
+    var updated = 0L
+        private set
+
+    /**
+     * Adds the parameters currently bound to [statement] to its batch, sending the batch if it is full.
+     */
+    fun add(statement: PreparedStatement) {
+        statement.addBatch()
+        val count = (pending[statement] ?: 0) + 1
+        if (count >= maxStatementsPerBatch) {
+            execute(statement)
+        } else {
+            pending[statement] = count
+        }
+    }
+
+    /**
+     * Sends every pending batch.
+     *
+     * @return The number of rows updated by all batches sent by this batcher.
+     */
+    fun flush(): Long {
+        pending.keys.toList().forEach(this::execute)
+        return updated
+    }
+
+    private fun execute(statement: PreparedStatement) {
+        pending.remove(statement)
+        updated += statement.executeBatch().sum()
+        roundTrips++
+    }
+}
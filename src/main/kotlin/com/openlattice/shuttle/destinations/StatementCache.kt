@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.destinations
+
+import org.postgresql.PGConnection
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.util.*
+
+/**
+ * Prepared statements kept per physical postgres connection, so that pooled connections reuse the statements they
+ * prepared for earlier batches instead of parsing and planning the same SQL again.
+ *
+ * Statements are prepared on the connection behind the pool's proxy, since the pool closes every statement prepared
+ * through the proxy when a connection is returned. A connection's statements are closed once the pool closes the
+ * connection, when [invalidate] is called after a failed write or when the cache itself is closed.
+ */
+internal class StatementCache : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(StatementCache::class.java)
+    }
+
+    private val connections = IdentityHashMap<Connection, ConnectionStatements>()
+
+    /**
+     * @return The statements of the physical connection behind [connection]. They may only be used while [connection]
+     * is borrowed from the pool.
+     */
+    fun forConnection(connection: Connection): ConnectionStatements {
+        val physical = physical(connection)
+        return synchronized(connections) {
+            connections.entries.removeIf { (cached, statements) ->
+                cached.isClosed.also { closed ->
+                    if (closed) {
+                        statements.close()
+                    }
+                }
+            }
+            connections.getOrPut(physical) { ConnectionStatements(physical) }
+        }
+    }
+
+    /**
+     * Drops the statements of [connection], for instance because a failed batch may have left them in an unknown state.
+     */
+    fun invalidate(connection: Connection) {
+        val physical = physical(connection)
+        synchronized(connections) { connections.remove(physical) }?.close()
+    }
+
+    override fun close() {
+        synchronized(connections) {
+            connections.values.forEach { it.close() }
+            connections.clear()
+        }
+    }
+
+    private fun physical(connection: Connection): Connection {
+        return connection.unwrap(PGConnection::class.java) as Connection
+    }
+
+    /**
+     * The statements prepared on a single physical connection, keyed by their SQL, and the temporary tables created in
+     * its session.
+     */
+    internal class ConnectionStatements(private val connection: Connection) : Closeable {
+        private val statements = HashMap<String, PreparedStatement>()
+        private val temporaryTables = HashSet<String>()
+
+        /**
+         * Runs [createSql] to create the temporary table [table] unless it was already created in this session.
+         * [createSql] should not fail if the table exists, since the tables are forgotten once the statements are
+         * invalidated while the session and its tables live on.
+         */
+        fun createTemporaryTable(table: String, createSql: String) {
+            if (table !in temporaryTables) {
+                connection.createStatement().use { statement -> statement.execute(createSql) }
+                temporaryTables.add(table)
+            }
+        }
+
+        fun prepare(sql: String): PreparedStatement {
+            val cached = statements[sql]
+            if (cached != null && !cached.isClosed) {
+                return cached
+            }
+            return connection.prepareStatement(sql).also { statements[sql] = it }
+        }
+
+        override fun close() {
+            statements.values.forEach { statement ->
+                try {
+                    statement.close()
+                } catch (ex: SQLException) {
+                    logger.debug("Unable to close cached statement.", ex)
+                }
+            }
+            statements.clear()
+            temporaryTables.clear()
+        }
+    }
+}
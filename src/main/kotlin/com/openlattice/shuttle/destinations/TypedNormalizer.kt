@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.destinations
+
+import com.dataloom.mappers.ObjectMappers
+import com.fasterxml.jackson.module.kotlin.readValue
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.postgres.JsonDeserializer
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.time.format.DateTimeParseException
+import java.util.*
+
+/**
+ * Converts a value to the java type stored for a datatype, or returns null if the value is not in a form it recognizes.
+ */
+private typealias Converter = (Any) -> Any?
+
+private val converters: Map<EdmPrimitiveTypeKind, Converter> = mapOf(
+        EdmPrimitiveTypeKind.String to { value -> value as? String },
+        EdmPrimitiveTypeKind.Boolean to { value ->
+            when (value) {
+                is Boolean -> value
+                "true", "True", "TRUE" -> true
+                "false", "False", "FALSE" -> false
+                else -> null
+            }
+        },
+        EdmPrimitiveTypeKind.Int16 to { value -> integral(value)?.takeIf { it.toShort().toLong() == it }?.toShort() },
+        EdmPrimitiveTypeKind.Int32 to { value -> integral(value)?.takeIf { it.toInt().toLong() == it }?.toInt() },
+        EdmPrimitiveTypeKind.Int64 to { value -> integral(value) },
+        EdmPrimitiveTypeKind.Double to { value ->
+            when (value) {
+                is Double -> value.takeIf { it.isFinite() }
+                is Int, is Long, is Short -> (value as Number).toDouble()
+                is String -> value.toDoubleOrNull()?.takeIf { it.isFinite() }
+                else -> null
+            }
+        },
+        EdmPrimitiveTypeKind.Guid to { value ->
+            when (value) {
+                is UUID -> value
+                is String -> parseOrNull { UUID.fromString(value) }?.takeIf { it.toString() == value.toLowerCase() }
+                else -> null
+            }
+        },
+        EdmPrimitiveTypeKind.Date to { value ->
+            when (value) {
+                is LocalDate -> value
+                is String -> parseOrNull { LocalDate.parse(value) }
+                else -> null
+            }
+        },
+        EdmPrimitiveTypeKind.DateTimeOffset to { value ->
+            when (value) {
+                is OffsetDateTime -> value
+                is String -> parseOrNull { OffsetDateTime.parse(value) }
+                else -> null
+            }
+        },
+        EdmPrimitiveTypeKind.TimeOfDay to { value ->
+            when (value) {
+                is LocalTime -> value
+                is String -> parseOrNull { LocalTime.parse(value) }
+                else -> null
+            }
+        }
+)
+
+private fun integral(value: Any): Long? {
+    return when (value) {
+        is Long -> value
+        is Int -> value.toLong()
+        is Short -> value.toLong()
+        is String -> value.toLongOrNull()
+        else -> null
+    }
+}
+
+private inline fun <T> parseOrNull(parse: () -> T): T? {
+    return try {
+        parse()
+    } catch (ex: DateTimeParseException) {
+        null
+    } catch (ex: IllegalArgumentException) {
+        null
+    }
+}
+
+/**
+ * Normalizes entity details to the java types postgres expects for each property type.
+ *
+ * Values that already have the right type, or are strings in the canonical format for their datatype, are converted
+ * directly with a converter looked up once per property type. Any property with a value the converters do not
+ * recognize, or with a datatype they do not cover, goes through the same json round trip and validation as before so
+ * that lenient formats and validation errors behave the same. Floats and non finite doubles always take the round trip,
+ * since it writes them as their shortest decimal or as strings rather than widening them.
+ */
+internal class TypedNormalizer(private val propertyTypes: Map<UUID, PropertyType>) {
+    companion object {
+        private val mapper = ObjectMappers.newJsonMapper()
+    }
+
+    private val convertersByPropertyType: Map<UUID, Converter> = propertyTypes
+            .mapNotNull { (id, propertyType) -> converters[propertyType.datatype]?.let { id to it } }
+            .toMap()
+
+    fun normalize(details: Map<UUID, Set<Any>>): Map<UUID, Set<Any>> {
+        val normalized = HashMap<UUID, Set<Any>>(details.size * 4 / 3 + 1)
+        var unconverted: MutableMap<UUID, Set<Any>>? = null
+
+        details.forEach { (propertyTypeId, values) ->
+            val converted = convert(propertyTypeId, values)
+            if (converted == null) {
+                if (unconverted == null) {
+                    unconverted = mutableMapOf()
+                }
+                unconverted!![propertyTypeId] = values
+            } else {
+                normalized[propertyTypeId] = converted
+            }
+        }
+
+        unconverted?.let { normalized.putAll(fallback(it)) }
+        return normalized
+    }
+
+    private fun convert(propertyTypeId: UUID, values: Set<Any>): Set<Any>? {
+        val converter = convertersByPropertyType[propertyTypeId] ?: return null
+        val converted = LinkedHashSet<Any>(values.size * 4 / 3 + 1)
+        values.forEach { value ->
+            converted.add(converter(value) ?: return null)
+        }
+        return converted
+    }
+
+    private fun fallback(details: Map<UUID, Set<Any>>): Map<UUID, Set<Any>> {
+        val propertyValues = mapper.readValue<Map<UUID, Set<Any>>>(mapper.writeValueAsBytes(details))
+        return JsonDeserializer.validateFormatAndNormalize(propertyValues, propertyTypes) {
+            "Error validating during integration"
+        }
+    }
+}
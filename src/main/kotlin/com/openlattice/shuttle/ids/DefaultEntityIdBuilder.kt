@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.ids
+
+import com.openlattice.ApiHelpers
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val DEFAULT_VERIFICATIONS = 1_000
+private val BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray()
+private val HEX_DIGITS = "0123456789ABCDEF".toCharArray()
+
+/**
+ * Builds the same default entity ids as [ApiHelpers.generateDefaultEntityId] without the intermediate streams,
+ * collections and strings it creates for every key property.
+ *
+ * For every key property in key order, the non-null values are sorted, joined with commas, URL encoded as UTF-8 and
+ * base64 encoded. The encoded key properties are joined with commas. All of this happens in buffers that are reused by
+ * the calling thread, so the only allocation left is the id itself.
+ *
+ * The first [verifications] ids are also generated by [ApiHelpers] and compared. If they ever differ, this builder
+ * logs the difference and delegates to [ApiHelpers] from then on, so ids stay stable even if the api changes how it
+ * builds them.
+ */
+class DefaultEntityIdBuilder(verifications: Int = DEFAULT_VERIFICATIONS) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(DefaultEntityIdBuilder::class.java)
+    }
+
+    private val remainingVerifications = AtomicInteger(verifications)
+    private val buffers = ThreadLocal.withInitial { Buffers() }
+
+    @Volatile
+    private var enabled = true
+
+    fun build(key: Set<UUID>, properties: Map<UUID, Set<Any>>): String {
+        if (!enabled || !key.all { properties.containsKey(it) }) {
+            return ApiHelpers.generateDefaultEntityId(key, properties)
+        }
+
+        val id = buffers.get().build(key, properties)
+        if (id.isBlank()) {
+            return UUID.randomUUID().toString()
+        }
+
+        if (remainingVerifications.get() > 0 && remainingVerifications.getAndDecrement() > 0) {
+            val expected = ApiHelpers.generateDefaultEntityId(key, properties)
+            if (expected != id) {
+                enabled = false
+                logger.warn(
+                        "Default entity id {} does not match {} generated by the api. Falling back to the api.",
+                        id,
+                        expected
+                )
+                return expected
+            }
+        }
+        return id
+    }
+
+    private class Buffers {
+        private val id = StringBuilder(128)
+        private val values = ArrayList<String>()
+        private val joined = StringBuilder(64)
+        private var encoded = ByteArray(64)
+        private var encodedSize = 0
+
+        fun build(key: Set<UUID>, properties: Map<UUID, Set<Any>>): String {
+            id.setLength(0)
+            var first = true
+            for (propertyTypeId in key) {
+                if (!first) {
+                    id.append(',')
+                }
+                first = false
+                join(properties.getValue(propertyTypeId))
+                urlEncode()
+                appendBase64()
+            }
+            return id.toString()
+        }
+
+        private fun join(propertyValues: Set<Any>) {
+            values.clear()
+            for (value in propertyValues) {
+                @Suppress("SENSELESS_COMPARISON")
+                if (value != null) {
+                    values.add(value.toString())
+                }
+            }
+            if (values.size > 1) {
+                values.sort()
+            }
+
+            joined.setLength(0)
+            for (index in values.indices) {
+                if (index > 0) {
+                    joined.append(',')
+                }
+                joined.append(values[index])
+            }
+        }
+
+        /**
+         * Encodes [joined] the way [java.net.URLEncoder] does with UTF-8. The result is plain ASCII, so its bytes are
+         * also its UTF-8 encoding.
+         */
+        private fun urlEncode() {
+            encodedSize = 0
+            var index = 0
+            while (index < joined.length) {
+                ensureCapacity(encodedSize + 12)
+                val c = joined[index]
+                when {
+                    c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '.' || c == '-' || c == '*' || c == '_' -> {
+                        encoded[encodedSize++] = c.code.toByte()
+                        index++
+                    }
+                    c == ' ' -> {
+                        encoded[encodedSize++] = '+'.code.toByte()
+                        index++
+                    }
+                    Character.isHighSurrogate(c) && index + 1 < joined.length
+                            && Character.isLowSurrogate(joined[index + 1]) -> {
+                        percentEncodeCodePoint(Character.toCodePoint(c, joined[index + 1]))
+                        index += 2
+                    }
+                    Character.isSurrogate(c) -> {
+                        // Unpaired surrogates are replaced with '?' when encoded as UTF-8.
+                        percentEncode('?'.code)
+                        index++
+                    }
+                    else -> {
+                        percentEncodeCodePoint(c.code)
+                        index++
+                    }
+                }
+            }
+        }
+
+        private fun percentEncodeCodePoint(codePoint: Int) {
+            when {
+                codePoint < 0x80 -> percentEncode(codePoint)
+                codePoint < 0x800 -> {
+                    percentEncode(0xC0 or (codePoint shr 6))
+                    percentEncode(0x80 or (codePoint and 0x3F))
+                }
+                codePoint < 0x10000 -> {
+                    percentEncode(0xE0 or (codePoint shr 12))
+                    percentEncode(0x80 or ((codePoint shr 6) and 0x3F))
+                    percentEncode(0x80 or (codePoint and 0x3F))
+                }
+                else -> {
+                    percentEncode(0xF0 or (codePoint shr 18))
+                    percentEncode(0x80 or ((codePoint shr 12) and 0x3F))
+                    percentEncode(0x80 or ((codePoint shr 6) and 0x3F))
+                    percentEncode(0x80 or (codePoint and 0x3F))
+                }
+            }
+        }
+
+        private fun percentEncode(byte: Int) {
+            encoded[encodedSize++] = '%'.code.toByte()
+            encoded[encodedSize++] = HEX_DIGITS[(byte shr 4) and 0xF].code.toByte()
+            encoded[encodedSize++] = HEX_DIGITS[byte and 0xF].code.toByte()
+        }
+
+        private fun appendBase64() {
+            var index = 0
+            while (index + 2 < encodedSize) {
+                val chunk = (byteAt(index) shl 16) or (byteAt(index + 1) shl 8) or byteAt(index + 2)
+                id.append(BASE64_ALPHABET[(chunk shr 18) and 0x3F])
+                        .append(BASE64_ALPHABET[(chunk shr 12) and 0x3F])
+                        .append(BASE64_ALPHABET[(chunk shr 6) and 0x3F])
+                        .append(BASE64_ALPHABET[chunk and 0x3F])
+                index += 3
+            }
+            when (encodedSize - index) {
+                1 -> {
+                    val chunk = byteAt(index) shl 16
+                    id.append(BASE64_ALPHABET[(chunk shr 18) and 0x3F])
+                            .append(BASE64_ALPHABET[(chunk shr 12) and 0x3F])
+                            .append("==")
+                }
+                2 -> {
+                    val chunk = (byteAt(index) shl 16) or (byteAt(index + 1) shl 8)
+                    id.append(BASE64_ALPHABET[(chunk shr 18) and 0x3F])
+                            .append(BASE64_ALPHABET[(chunk shr 12) and 0x3F])
+                            .append(BASE64_ALPHABET[(chunk shr 6) and 0x3F])
+                            .append('=')
+                }
+            }
+        }
+
+        private fun byteAt(index: Int): Int {
+            return encoded[index].toInt() and 0xFF
+        }
+
+        private fun ensureCapacity(capacity: Int) {
+            if (capacity > encoded.size) {
+                encoded = encoded.copyOf(maxOf(capacity, encoded.size * 2))
+            }
+        }
+    }
+}
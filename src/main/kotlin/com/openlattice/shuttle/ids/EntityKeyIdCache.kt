@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.ids
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.RemovalCause
+import com.openlattice.data.EntityKey
+import com.openlattice.shuttle.EntityKeyIdCacheConfiguration
+import java.io.Closeable
+import java.nio.file.Paths
+import java.util.*
+
+/**
+ * Rough per entry overhead of a cached entity key id: the entity key, its entity set id, the entity key id and the
+ * cache segment entry that holds them.
+ */
+private const val ENTRY_OVERHEAD_BYTES = 128
+
+/**
+ * Bounded cache of entity key ids shared by every batch and flight of a [com.openlattice.shuttle.Shuttle] run.
+ *
+ * Entries are weighed by an estimate of their size in bytes, so the cache is bounded by memory rather than by entry
+ * count regardless of how long entity ids are. Entries evicted for size are written to the optional [spill] store and
+ * are promoted back into memory the next time they are looked up.
+ */
+class EntityKeyIdCache(
+        maximumBytes: Long,
+        metrics: MetricRegistry,
+        private val spill: EntityKeyIdSpillStore? = null
+) : Closeable {
+    companion object {
+        /**
+         * @param share The share of the configured size this cache may use, so that integrations running side by side
+         * split it instead of each taking all of it.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromConfiguration(
+                configuration: EntityKeyIdCacheConfiguration,
+                metrics: MetricRegistry,
+                share: Double = 1.0
+        ): EntityKeyIdCache {
+            val spill = configuration.spillDirectory?.let { EntityKeyIdSpillStore(Paths.get(it)) }
+            return EntityKeyIdCache((configuration.maximumSizeMb * 1024 * 1024 * share).toLong(), metrics, spill)
+        }
+
+        private fun weigh(entityKey: EntityKey): Int {
+            return ENTRY_OVERHEAD_BYTES + 2 * entityKey.entityId.length
+        }
+    }
+
+    private val hits = metrics.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "hits"))
+    private val spillHits = metrics.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "spill-hits"))
+    private val misses = metrics.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "misses"))
+
+    private val cache: Cache<EntityKey, UUID> = CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .weigher<EntityKey, UUID> { entityKey, _ -> weigh(entityKey) }
+            .removalListener<EntityKey, UUID> { notification ->
+                if (notification.cause == RemovalCause.SIZE) {
+                    spill?.put(notification.key!!, notification.value!!)
+                }
+            }
+            .build()
+
+    /**
+     * Resolves the entity key ids for [entityKeys], calling [lookup] only with keys that are neither in memory nor in
+     * the spill store. Ids returned by [lookup] are added to the cache.
+     *
+     * @param lookup Returns the entity key ids for the keys it is given, in the iteration order of the keys.
+     */
+    fun getEntityKeyIds(
+            entityKeys: Set<EntityKey>,
+            lookup: (Set<EntityKey>) -> Iterable<UUID>
+    ): Map<EntityKey, UUID> {
+        val entityKeyIds = HashMap<EntityKey, UUID>(entityKeys.size * 4 / 3 + 1)
+        val unseen = LinkedHashSet<EntityKey>()
+
+        entityKeys.forEach { entityKey ->
+            val cached = cache.getIfPresent(entityKey)
+            if (cached != null) {
+                entityKeyIds[entityKey] = cached
+                return@forEach
+            }
+
+            val spilled = spill?.get(entityKey)
+            if (spilled != null) {
+                spillHits.mark()
+                cache.put(entityKey, spilled)
+                entityKeyIds[entityKey] = spilled
+            } else {
+                unseen.add(entityKey)
+            }
+        }
+
+        hits.mark((entityKeys.size - unseen.size).toLong())
+        misses.mark(unseen.size.toLong())
+
+        if (unseen.isNotEmpty()) {
+            unseen.zip(lookup(unseen)).forEach { (entityKey, entityKeyId) ->
+                cache.put(entityKey, entityKeyId)
+                entityKeyIds[entityKey] = entityKeyId
+            }
+        }
+
+        return entityKeyIds
+    }
+
+    fun size(): Long {
+        return cache.size()
+    }
+
+    override fun close() {
+        cache.invalidateAll()
+        spill?.close()
+    }
+}
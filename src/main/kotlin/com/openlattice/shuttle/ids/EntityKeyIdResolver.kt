@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.ids
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.openlattice.data.EntityKey
+import com.openlattice.shuttle.pipeline.PipelineStage
+import java.util.*
+
+/**
+ * Resolves entity key ids in the background so that callers can keep transforming and writing while the round trip to
+ * the entity key id service is in progress.
+ *
+ * At most [maxInFlightRequests] resolutions are queued or running on [executor] at the same time. Asking for more
+ * blocks the caller until one of them completes, which keeps batches from piling up behind a slow entity key id
+ * service.
+ */
+class EntityKeyIdResolver(
+        private val cache: EntityKeyIdCache,
+        executor: ListeningExecutorService,
+        maxInFlightRequests: Int,
+        metrics: MetricRegistry,
+        private val lookup: (Set<EntityKey>) -> Iterable<UUID>
+) {
+    private val stage = PipelineStage("ekids", executor, maxInFlightRequests, metrics)
+
+    fun resolveAsync(entityKeys: Set<EntityKey>): ListenableFuture<Map<EntityKey, UUID>> {
+        return stage.submit { cache.getEntityKeyIds(entityKeys, lookup) }
+    }
+}
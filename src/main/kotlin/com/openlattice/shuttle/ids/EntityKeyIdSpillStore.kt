@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.ids
+
+import com.google.common.hash.Hashing
+import com.openlattice.data.EntityKey
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+
+/**
+ * Append-only, file-backed overflow for [EntityKeyIdCache].
+ *
+ * Records are appended to a temporary file and indexed in memory by a 64-bit hash of the entity key, in a primitive map
+ * that takes 20 to 40 bytes per spilled key. Every record stores the full entity key, so a hash collision is detected
+ * on read and treated as a miss; the overwritten key will simply be resolved again by the entity key id service. The
+ * file is deleted when the store is closed.
+ */
+class EntityKeyIdSpillStore(directory: Path) : Closeable {
+    private val path: Path = Files.createTempFile(Files.createDirectories(directory), "ekids-", ".spill")
+    private val file = RandomAccessFile(path.toFile(), "rw")
+    private val offsets = LongLongHashMap()
+
+    init {
+        path.toFile().deleteOnExit()
+    }
+
+    @Synchronized
+    fun put(entityKey: EntityKey, entityKeyId: UUID) {
+        val record = ByteArrayOutputStream()
+        DataOutputStream(record).use { out ->
+            val entityId = entityKey.entityId.toByteArray(Charsets.UTF_8)
+            out.writeLong(entityKey.entitySetId.mostSignificantBits)
+            out.writeLong(entityKey.entitySetId.leastSignificantBits)
+            out.writeInt(entityId.size)
+            out.write(entityId)
+            out.writeLong(entityKeyId.mostSignificantBits)
+            out.writeLong(entityKeyId.leastSignificantBits)
+        }
+
+        val offset = file.length()
+        file.seek(offset)
+        file.write(record.toByteArray())
+        offsets.put(hash(entityKey), offset)
+    }
+
+    @Synchronized
+    fun get(entityKey: EntityKey): UUID? {
+        val offset = offsets.get(hash(entityKey))
+        if (offset < 0) {
+            return null
+        }
+
+        file.seek(offset)
+        val entitySetId = UUID(file.readLong(), file.readLong())
+        val entityId = ByteArray(file.readInt())
+        file.readFully(entityId)
+        val entityKeyId = UUID(file.readLong(), file.readLong())
+
+        return if (entitySetId == entityKey.entitySetId && String(entityId, Charsets.UTF_8) == entityKey.entityId) {
+            entityKeyId
+        } else {
+            null
+        }
+    }
+
+    @Synchronized
+    fun size(): Int {
+        return offsets.size
+    }
+
+    @Synchronized
+    override fun close() {
+        offsets.clear()
+        file.close()
+        Files.deleteIfExists(path)
+    }
+
+    private fun hash(entityKey: EntityKey): Long {
+        return Hashing.murmur3_128().newHasher()
+                .putLong(entityKey.entitySetId.mostSignificantBits)
+                .putLong(entityKey.entitySetId.leastSignificantBits)
+                .putString(entityKey.entityId, Charsets.UTF_8)
+                .hash()
+                .asLong()
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.ids
+
+/**
+ * Open addressing hash map from long to non-negative long, backed by two primitive arrays.
+ *
+ * Entries take 16 bytes in the arrays instead of the 80 or so bytes of a boxed [HashMap] entry, which matters for
+ * indexes that hold one entry per spilled entity key. Values are stored off by one so that a zero slot means empty.
+ */
+internal class LongLongHashMap(expectedSize: Int = 1024) {
+    companion object {
+        private const val MAX_LOAD = 0.75
+    }
+
+    private var keys: LongArray
+    private var values: LongArray
+    private var mask: Int
+
+    var size = 0
+        private set
+
+    init {
+        val capacity = Integer.highestOneBit((expectedSize / MAX_LOAD).toInt().coerceAtLeast(2) - 1) shl 1
+        keys = LongArray(capacity)
+        values = LongArray(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * @return The value for [key] or -1 if there is none.
+     */
+    fun get(key: Long): Long {
+        var slot = slot(key)
+        while (values[slot] != 0L) {
+            if (keys[slot] == key) {
+                return values[slot] - 1
+            }
+            slot = (slot + 1) and mask
+        }
+        return -1
+    }
+
+    fun put(key: Long, value: Long) {
+        require(value >= 0) { "Values must be non-negative, but got $value." }
+        if (size + 1 > keys.size * MAX_LOAD) {
+            resize(keys.size shl 1)
+        }
+        if (insert(keys, values, mask, key, value + 1)) {
+            size++
+        }
+    }
+
+    fun clear() {
+        keys.fill(0)
+        values.fill(0)
+        size = 0
+    }
+
+    private fun slot(key: Long): Int {
+        return mix(key).toInt() and mask
+    }
+
+    private fun resize(capacity: Int) {
+        val resizedKeys = LongArray(capacity)
+        val resizedValues = LongArray(capacity)
+        val resizedMask = capacity - 1
+        for (i in keys.indices) {
+            if (values[i] != 0L) {
+                insert(resizedKeys, resizedValues, resizedMask, keys[i], values[i])
+            }
+        }
+        keys = resizedKeys
+        values = resizedValues
+        mask = resizedMask
+    }
+
+    /**
+     * @return True if [key] was not present before.
+     */
+    private fun insert(keys: LongArray, values: LongArray, mask: Int, key: Long, storedValue: Long): Boolean {
+        var slot = mix(key).toInt() and mask
+        while (values[slot] != 0L) {
+            if (keys[slot] == key) {
+                values[slot] = storedValue
+                return false
+            }
+            slot = (slot + 1) and mask
+        }
+        keys[slot] = key
+        values[slot] = storedValue
+        return true
+    }
+
+    private fun mix(key: Long): Long {
+        val h = key * -0x61c8864680b583ebL
+        return h xor (h ushr 32)
+    }
+}
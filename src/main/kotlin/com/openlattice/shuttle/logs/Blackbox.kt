@@ -3,11 +3,17 @@ package com.openlattice.shuttle.logs
 import com.fasterxml.jackson.annotation.JsonProperty
 import com.kryptnostic.rhizome.configuration.annotation.ReloadableConfiguration
 
+/**
+ * @param flushIntervalMillis How often buffered log entries are written to the log entity set.
+ * @param maxBufferedEntries Number of buffered log entries that triggers an early flush.
+ */
 @ReloadableConfiguration(uri = "blackbox.yaml")
 data class Blackbox (
     @JsonProperty("entity-type") val entityTypeFqn: String,
     @JsonProperty("fqns") val fqns: Map<BlackboxProperty, String>,
-    @JsonProperty("enabled") val enabled: Boolean = true
+    @JsonProperty("enabled") val enabled: Boolean = true,
+    @JsonProperty("flush-interval-ms") val flushIntervalMillis: Long = 5_000,
+    @JsonProperty("max-buffered-entries") val maxBufferedEntries: Int = 500
 ) {
     companion object {
         @JvmStatic
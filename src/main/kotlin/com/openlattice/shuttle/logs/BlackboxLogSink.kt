@@ -0,0 +1,103 @@
+package com.openlattice.shuttle.logs
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.openlattice.shuttle.IntegrationStatus
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Buffers blackbox log entries and writes them in the background.
+ *
+ * Entries are grouped by flight and written as a single log entity per flight on every flush. Flushes happen every
+ * [flushIntervalMillis], or early once [maxBufferedEntries] entries are waiting. Status updates are collapsed: only the
+ * latest status is sent per flush, and only if it differs from the last status that was sent. Entries with a terminal
+ * status are flushed on the calling thread before [append] returns, so they are stored even if the process exits
+ * right afterwards.
+ *
+ * @param store Writes the log lines of one flight with the given status.
+ * @param updateStatus Publishes the status of the integration job.
+ */
+class BlackboxLogSink(
+        private val maxBufferedEntries: Int,
+        flushIntervalMillis: Long,
+        private val store: (String, Set<String>, IntegrationStatus) -> Unit,
+        private val updateStatus: (IntegrationStatus) -> Unit
+) : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(BlackboxLogSink::class.java)
+    }
+
+    private class PendingLog(var status: IntegrationStatus) {
+        val lines = LinkedHashSet<String>()
+    }
+
+    private val bufferLock = Any()
+    private val flushLock = Any()
+    private var pending = LinkedHashMap<String, PendingLog>()
+    private var pendingEntries = 0
+    private var latestStatus: IntegrationStatus? = null
+    private var publishedStatus: IntegrationStatus? = null
+
+    private val flusher = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setNameFormat("shuttle-blackbox-%d").setDaemon(true).build()
+    )
+
+    init {
+        flusher.scheduleWithFixedDelay(
+                { flushQuietly() }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS
+        )
+    }
+
+    fun append(flightName: String, log: Set<String>, status: IntegrationStatus) {
+        val full = synchronized(bufferLock) {
+            val flightLog = pending.getOrPut(flightName) { PendingLog(status) }
+            flightLog.lines.addAll(log)
+            flightLog.status = status
+            latestStatus = status
+            pendingEntries += log.size
+            pendingEntries >= maxBufferedEntries
+        }
+
+        if (status != IntegrationStatus.IN_PROGRESS) {
+            flush()
+        } else if (full) {
+            flusher.execute { flushQuietly() }
+        }
+    }
+
+    /**
+     * Writes everything that is buffered and publishes the latest status if it changed.
+     */
+    fun flush() {
+        synchronized(flushLock) {
+            val (drained, status) = synchronized(bufferLock) {
+                val drained = pending
+                pending = LinkedHashMap()
+                pendingEntries = 0
+                drained to latestStatus
+            }
+
+            drained.forEach { (flightName, flightLog) -> store(flightName, flightLog.lines, flightLog.status) }
+
+            if (status != null && status != publishedStatus) {
+                updateStatus(status)
+                publishedStatus = status
+            }
+        }
+    }
+
+    private fun flushQuietly() {
+        try {
+            flush()
+        } catch (ex: Exception) {
+            logger.warn("Unable to write buffered blackbox logs.", ex)
+        }
+    }
+
+    override fun close() {
+        flusher.shutdown()
+        flush()
+    }
+}
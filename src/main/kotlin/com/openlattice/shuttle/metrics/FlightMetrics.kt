@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Meter
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Timer
+import com.openlattice.shuttle.Shuttle
+import com.openlattice.shuttle.destinations.StorageDestination
+
+/**
+ * Metrics of a single flight, tagged with the flight name and with the [runId] of the integration flying it, so that
+ * concurrent flights can be told apart even when integrations running side by side have flights of the same name.
+ *
+ * The metrics live in a registry shared by every integration in the process, so they are removed again by [close]
+ * once the flight has landed.
+ */
+class FlightMetrics(
+        private val registry: MetricRegistry,
+        flightName: String,
+        runId: String
+) : AutoCloseable {
+    /**
+     * Tags of every metric of this flight. Other components tag their per flight metrics with these as well, so that
+     * [close] removes them too.
+     */
+    val tags: List<Pair<String, String>> = listOf(FLIGHT_TAG to flightName, RUN_TAG to runId)
+
+
+    /**
+     * Time spent transforming a batch of rows into entities and associations.
+     */
+    val impulse: Timer = registry.timer(name("impulse"))
+
+    /**
+     * Time from requesting the entity key ids of a batch until they are available, including time spent waiting for
+     * a free request slot.
+     */
+    val entityKeyIds: Timer = registry.timer(name("entity-key-ids"))
+
+    fun entityWrites(destination: StorageDestination): Timer {
+        return registry.timer(name("entity-writes", destination))
+    }
+
+    fun edgeWrites(destination: StorageDestination): Timer {
+        return registry.timer(name("edge-writes", destination))
+    }
+
+    /**
+     * Writes to [destination] that failed and were attempted again.
+     */
+    fun retries(destination: StorageDestination): Meter {
+        return registry.meter(name("retries", destination))
+    }
+
+    /**
+     * Publishes the number of batches of this flight that are in the pipeline, replacing any gauge published before.
+     */
+    fun batchesInFlight(batches: () -> Long) {
+        val name = name("batches-in-flight")
+        registry.remove(name)
+        registry.register(name, Gauge<Long> { batches() })
+    }
+
+    /**
+     * Removes every metric tagged with this flight of this run, including ones registered by other components such as
+     * the batch sizer, and drops the batches in flight gauge along with the progress it references. Metrics of flights
+     * with the same name in other runs are left alone.
+     */
+    override fun close() {
+        val flightTags = ShuttleMetrics.untagged(ShuttleMetrics.tagged("", *tags.toTypedArray())).second
+        registry.removeMatching { name, _ -> ShuttleMetrics.untagged(name).second.containsAll(flightTags) }
+    }
+
+    private fun name(metric: String): String {
+        return ShuttleMetrics.tagged(MetricRegistry.name(Shuttle::class.java, metric), *tags.toTypedArray())
+    }
+
+    private fun name(metric: String, destination: StorageDestination): String {
+        return ShuttleMetrics.tagged(
+                MetricRegistry.name(Shuttle::class.java, metric),
+                *tags.toTypedArray(),
+                DESTINATION_TAG to destination.name
+        )
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.Counter
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Histogram
+import com.codahale.metrics.Meter
+import com.codahale.metrics.Metric
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Snapshot
+import com.codahale.metrics.Timer
+import java.io.StringWriter
+import java.io.Writer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Renders a [MetricRegistry] in the Prometheus text exposition format.
+ *
+ * Counters and numeric gauges become gauges, meters become counters named `*_total`, and histograms and timers become
+ * summaries with a fixed set of quantiles. Timer quantiles are reported in seconds and named `*_seconds`. Tags added
+ * with [ShuttleMetrics.tagged] become labels.
+ */
+object PrometheusTextFormat {
+    const val CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8"
+
+    private val QUANTILES = doubleArrayOf(0.5, 0.75, 0.95, 0.99, 0.999)
+    private val INVALID_NAME_CHARACTERS = Regex("[^a-zA-Z0-9_:]")
+    private val INVALID_LABEL_CHARACTERS = Regex("[^a-zA-Z0-9_]")
+    private val SECONDS_PER_NANOSECOND = 1.0 / TimeUnit.SECONDS.toNanos(1)
+
+    @JvmStatic
+    fun format(registry: MetricRegistry): String {
+        val writer = StringWriter()
+        write(registry, writer)
+        return writer.toString()
+    }
+
+    @JvmStatic
+    fun write(registry: MetricRegistry, writer: Writer) {
+        registry.metrics.entries
+                .mapNotNull { (name, metric) ->
+                    val (base, tags) = ShuttleMetrics.untagged(name)
+                    val labels = tags.map { (key, value) -> INVALID_LABEL_CHARACTERS.replace(key, "_") to value }
+                    exposedName(sanitize(base), metric)?.let { Sample(it, labels, metric) }
+                }
+                .groupBy { it.name }
+                .toSortedMap()
+                .forEach { (name, samples) ->
+                    writer.write("# TYPE $name ${typeOf(samples.first().metric)}\n")
+                    samples.forEach { writeSample(it, writer) }
+                }
+    }
+
+    private fun writeSample(sample: Sample, writer: Writer) {
+        val name = sample.name
+        val labels = sample.labels
+        when (val metric = sample.metric) {
+            is Counter -> writeLine(writer, name, labels, metric.count.toDouble())
+            is Gauge<*> -> writeLine(writer, name, labels, gaugeValue(metric) ?: return)
+            is Meter -> writeLine(writer, name, labels, metric.count.toDouble())
+            is Histogram -> writeSummary(writer, name, labels, metric.snapshot, metric.count, 1.0)
+            is Timer -> writeSummary(writer, name, labels, metric.snapshot, metric.count, SECONDS_PER_NANOSECOND)
+        }
+    }
+
+    private fun writeSummary(
+            writer: Writer,
+            name: String,
+            labels: List<Pair<String, String>>,
+            snapshot: Snapshot,
+            count: Long,
+            scale: Double
+    ) {
+        QUANTILES.forEach { quantile ->
+            writeLine(writer, name, labels + ("quantile" to quantile.toString()), snapshot.getValue(quantile) * scale)
+        }
+        writeLine(writer, "${name}_count", labels, count.toDouble())
+    }
+
+    private fun writeLine(writer: Writer, name: String, labels: List<Pair<String, String>>, value: Double) {
+        writer.write(name)
+        if (labels.isNotEmpty()) {
+            writer.write(labels.joinToString(",", "{", "}") { (key, labelValue) -> "$key=\"${escape(labelValue)}\"" })
+        }
+        writer.write(" ")
+        writer.write(formatValue(value))
+        writer.write("\n")
+    }
+
+    private fun exposedName(base: String, metric: Metric): String? {
+        return when (metric) {
+            is Counter -> base
+            is Gauge<*> -> if (gaugeValue(metric) == null) null else base
+            is Meter -> "${base}_total"
+            is Histogram -> base
+            is Timer -> "${base}_seconds"
+            else -> null
+        }
+    }
+
+    private fun typeOf(metric: Metric): String {
+        return when (metric) {
+            is Meter -> "counter"
+            is Histogram, is Timer -> "summary"
+            else -> "gauge"
+        }
+    }
+
+    private fun gaugeValue(gauge: Gauge<*>): Double? {
+        return when (val value = gauge.value) {
+            is Number -> value.toDouble()
+            is Boolean -> if (value) 1.0 else 0.0
+            else -> null
+        }
+    }
+
+    private fun sanitize(name: String): String {
+        val sanitized = INVALID_NAME_CHARACTERS.replace(name, "_")
+        return if (sanitized.firstOrNull()?.isDigit() == true) "_$sanitized" else sanitized
+    }
+
+    private fun escape(value: String): String {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+    }
+
+    private fun formatValue(value: Double): String {
+        return when {
+            value.isNaN() -> "NaN"
+            value == Double.POSITIVE_INFINITY -> "+Inf"
+            value == Double.NEGATIVE_INFINITY -> "-Inf"
+            else -> value.toString()
+        }
+    }
+
+    private class Sample(val name: String, val labels: List<Pair<String, String>>, val metric: Metric)
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Reporter
+import com.codahale.metrics.ScheduledReporter
+import com.codahale.metrics.Slf4jReporter
+import com.codahale.metrics.jmx.JmxReporter
+import org.slf4j.LoggerFactory
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+const val FLIGHT_TAG = "flight"
+const val DESTINATION_TAG = "destination"
+const val RUN_TAG = "run"
+
+/**
+ * The metric registry shared by every integration running in this process.
+ *
+ * Metrics are reported to the log every minute and published over JMX for as long as the process is up. Shuttle server
+ * also serves them in the Prometheus text format from the metrics endpoint, see [PrometheusTextFormat]. Further
+ * reporters, such as one pushing to a metrics backend, can be plugged in with [addReporter].
+ *
+ * Dropwizard metrics have no notion of tags, so tags are encoded into the metric name by [tagged] and decoded again by
+ * [PrometheusTextFormat].
+ */
+object ShuttleMetrics {
+    private val logger = LoggerFactory.getLogger(ShuttleMetrics::class.java)
+    private val TAG_RESERVED = Regex("[{},=]")
+
+    @JvmField
+    val registry = MetricRegistry()
+
+    private val reporters = CopyOnWriteArrayList<Reporter>()
+
+    init {
+        addReporter(
+                Slf4jReporter.forRegistry(registry)
+                        .outputTo(logger)
+                        .convertRatesTo(TimeUnit.SECONDS)
+                        .convertDurationsTo(TimeUnit.MILLISECONDS)
+                        .build(),
+                1,
+                TimeUnit.MINUTES
+        )
+        addReporter(
+                JmxReporter.forRegistry(registry)
+                        .inDomain("com.openlattice.shuttle")
+                        .convertRatesTo(TimeUnit.SECONDS)
+                        .convertDurationsTo(TimeUnit.MILLISECONDS)
+                        .build()
+                        .apply { start() }
+        )
+    }
+
+    /**
+     * Starts [reporter], which then reports the [registry] every [period] until the process exits and whenever
+     * [report] is called.
+     */
+    @JvmStatic
+    fun addReporter(reporter: ScheduledReporter, period: Long, unit: TimeUnit) {
+        reporter.start(period, unit)
+        reporters.add(reporter)
+    }
+
+    /**
+     * Keeps a [reporter] that publishes the [registry] on its own, like a [JmxReporter], open for as long as the
+     * process is up. It must already have been started.
+     */
+    @JvmStatic
+    fun addReporter(reporter: Reporter) {
+        reporters.add(reporter)
+    }
+
+    /**
+     * Has every scheduled reporter report a snapshot of every metric right away, without waiting for its next
+     * scheduled report.
+     */
+    @JvmStatic
+    fun report() {
+        reporters.filterIsInstance<ScheduledReporter>().forEach { it.report() }
+    }
+
+    /**
+     * Appends [tags] to [name] as `name{key=value,...}`. Characters that would break decoding are replaced in the tag
+     * values.
+     */
+    @JvmStatic
+    fun tagged(name: String, vararg tags: Pair<String, String>): String {
+        if (tags.isEmpty()) {
+            return name
+        }
+        return tags.joinToString(",", "$name{", "}") { (key, value) -> "$key=${TAG_RESERVED.replace(value, "_")}" }
+    }
+
+    /**
+     * Splits a name built by [tagged] back into the base name and its tags.
+     */
+    @JvmStatic
+    fun untagged(name: String): Pair<String, List<Pair<String, String>>> {
+        val start = name.indexOf('{')
+        if (start < 0 || !name.endsWith("}")) {
+            return name to listOf()
+        }
+        val tags = name.substring(start + 1, name.length - 1)
+                .split(',')
+                .filter { it.isNotEmpty() }
+                .map { tag ->
+                    val separator = tag.indexOf('=')
+                    if (separator < 0) tag to "" else tag.substring(0, separator) to tag.substring(separator + 1)
+                }
+        return name.substring(0, start) to tags
+    }
+}
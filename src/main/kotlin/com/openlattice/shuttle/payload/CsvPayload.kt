@@ -1,5 +1,7 @@
 package com.openlattice.shuttle.payload
 
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException
+import com.fasterxml.jackson.dataformat.csv.CsvParser
 import com.openlattice.shuttle.util.CsvUtil
 import org.slf4j.LoggerFactory
 import java.io.File
@@ -16,10 +18,26 @@ open class CsvPayload(val path: String) : Payload {
         try {
             return object : Iterable<Map<String, Any?>> {
                 override fun iterator(): Iterator<Map<String, Any?>> {
-                    return CsvUtil.newDefaultMapper()
-                            .readerFor(Map::class.java)
-                            .with(CsvUtil.newDefaultSchemaFromHeader())
-                            .readValues<Map<String, Any?>>(File(path))
+                    val lines = CsvUtil.newDefaultMapper()
+                            .enable(CsvParser.Feature.WRAP_AS_ARRAY)
+                            .readerFor(Array<String>::class.java)
+                            .readValues<Array<String?>>(File(path))
+
+                    if (!lines.hasNext()) {
+                        return emptyList<Map<String, Any?>>().iterator()
+                    }
+
+                    val header = lines.next().map { it ?: "" }
+                    val layouts = arrayOfNulls<CsvLayout>(header.size + 1)
+
+                    return lines.asSequence().map { line ->
+                        val width = cellCount(line, header.size) ?: throw RuntimeJsonMappingException(
+                                "Too many entries in csv row at line ${lines.currentLocation.lineNr} of $path: " +
+                                        "expected at most ${header.size}, but got ${line.size}."
+                        )
+                        val layout = layouts[width] ?: CsvLayout(header, width).also { layouts[width] = it }
+                        layout.schema.newRow(Array<Any?>(layout.cells.size) { slot -> line[layout.cells[slot]] })
+                    }.iterator()
                 }
             }
         } catch (e: IOException) {
@@ -27,4 +45,36 @@ open class CsvPayload(val path: String) : Payload {
             return listOf()
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Rows keep the shape they had when they were read as maps against the header. A single empty cell past the last
+ * column is a trailing comma and is ignored, while any other cell past it rejects the row.
+ *
+ * @return The number of cells of [line] that belong to a column or null if the row has more cells than [columns].
+ */
+private fun cellCount(line: Array<String?>, columns: Int): Int? {
+    return when {
+        line.size <= columns -> line.size
+        line.size == columns + 1 && line.last().isNullOrEmpty() -> columns
+        else -> null
+    }
+}
+
+/**
+ * Schema of the rows with [width] cells. Columns missing from a short row are left out of it instead of being null,
+ * and a column that appears more than once in the header takes the value of its last cell.
+ */
+private class CsvLayout(header: List<String>, width: Int) {
+    val schema: RowSchema
+    val cells: IntArray
+
+    init {
+        val lastCells = LinkedHashMap<String, Int>()
+        for (cell in 0 until width) {
+            lastCells[header[cell]] = cell
+        }
+        schema = RowSchema(lastCells.keys.toList())
+        cells = lastCells.values.toIntArray()
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.payload
+
+/**
+ * Column layout shared by every row read from the same payload. Column names are resolved to slots once, when the
+ * schema is built, instead of being hashed into a fresh map for every row.
+ */
+class RowSchema(columns: List<String>) {
+    val columns: List<String> = columns.toList()
+    val columnSet: Set<String> = columns.toCollection(LinkedHashSet())
+    private val slots: Map<String, Int> = this.columns.withIndex().associate { it.value to it.index }
+
+    init {
+        require(columnSet.size == this.columns.size) { "Row schema cannot contain duplicate columns: $columns" }
+    }
+
+    val size: Int
+        get() = columns.size
+
+    /**
+     * @return The slot for [column] or -1 if the column is not part of this schema.
+     */
+    fun slotOf(column: String): Int {
+        return slots[column] ?: -1
+    }
+
+    fun newRow(values: Array<Any?>): IndexedRow {
+        require(values.size == columns.size) {
+            "Expected ${columns.size} values for schema $columns, but got ${values.size}."
+        }
+        return IndexedRow(this, values)
+    }
+}
+
+/**
+ * A payload row backed by an array of values laid out according to a [RowSchema].
+ *
+ * The row is also a read-only [Map] view keyed by column name, so existing transforms, conditions and generators that
+ * expect a `Map<String, Any?>` keep working without the payload having to allocate a hash map per row.
+ */
+class IndexedRow(val schema: RowSchema, private val values: Array<Any?>) : AbstractMap<String, Any?>() {
+
+    operator fun get(slot: Int): Any? {
+        return values[slot]
+    }
+
+    override fun get(key: String): Any? {
+        val slot = schema.slotOf(key)
+        return if (slot < 0) null else values[slot]
+    }
+
+    override fun containsKey(key: String): Boolean {
+        return schema.slotOf(key) >= 0
+    }
+
+    override val size: Int
+        get() = values.size
+
+    override val keys: Set<String>
+        get() = schema.columnSet
+
+    override val entries: Set<Map.Entry<String, Any?>>
+        get() = object : AbstractSet<Map.Entry<String, Any?>>() {
+            override val size: Int
+                get() = values.size
+
+            override fun iterator(): Iterator<Map.Entry<String, Any?>> {
+                return schema.columns.indices.asSequence()
+                        .map { slot -> java.util.AbstractMap.SimpleImmutableEntry(schema.columns[slot], values[slot]) }
+                        .iterator()
+            }
+        }
+}
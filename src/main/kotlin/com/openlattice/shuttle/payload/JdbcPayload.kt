@@ -23,54 +23,126 @@ internal const val DEFAULT_FETCH_SIZE = 50_000
  */
 
 private val UTC = ZoneId.of("UTC")
+private val ORDER_BY = Regex("\\border\\s+by\\b", RegexOption.IGNORE_CASE)
 
+/**
+ * @param ordered Whether [sql] returns its rows in a stable order. Defaults to whether the query has an ORDER BY of its
+ * own, see [hasTopLevelOrderBy].
+ */
 class JdbcPayload @JvmOverloads constructor(
         permitsPerSecond: Double = DEFAULT_PERMITS_PER_SECOND,
         val hds: HikariDataSource,
         val sql: String,
         val fetchSize: Int = DEFAULT_FETCH_SIZE,
-        val rateLimited: Boolean = true
+        val rateLimited: Boolean = true,
+        val ordered: Boolean = hasTopLevelOrderBy(sql)
 ) : Payload {
     private val rateLimiter = RateLimiter.create(if (rateLimited) permitsPerSecond else Double.MAX_VALUE)
-    private lateinit var columns: List<String>
+    private lateinit var layout: ResultSetLayout
 
     override fun getPayload(): BasePostgresIterable<Map<String, Any?>> {
+        return query(sql)
+    }
+
+    override val isOrdered: Boolean
+        get() = ordered
+
+    /**
+     * Against Postgres sources the query is restarted with an OFFSET, so skipped rows are never transferred. Other
+     * sources fall back to reading and discarding the skipped rows.
+     */
+    override fun getPayload(offset: Long): Iterable<Map<String, Any?>> {
+        return if (offset > 0 && hds.jdbcUrl?.startsWith("jdbc:postgresql:") == true) {
+            query("SELECT * FROM (${sql.trim().trimEnd(';')}) AS resumed OFFSET $offset")
+        } else {
+            super.getPayload(offset)
+        }
+    }
+
+    private fun query(sql: String): BasePostgresIterable<Map<String, Any?>> {
         TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
 
         return BasePostgresIterable(StatementHolderSupplier(hds, sql, fetchSize)) { rs ->
-            if (!::columns.isInitialized) {
-                columns = getColumnNames(rs)
+            if (!::layout.isInitialized) {
+                layout = getLayout(rs)
             }
 
             if (rateLimited) rateLimiter.acquire()
 
-            read(columns, rs)
+            read(layout, rs)
         }
 
     }
 }
 
-private fun getColumnNames(rs: ResultSet): List<String> {
+/**
+ * Row schema of a result set along with the 1-based index of the first result set column for each schema column.
+ */
+private class ResultSetLayout(val schema: RowSchema, val columnIndices: IntArray)
+
+private fun getLayout(rs: ResultSet): ResultSetLayout {
     try {
         val rsm = rs.getMetaData()
         val columnCount = rsm!!.columnCount
-        return (1..columnCount).map(rsm::getColumnName)
+        val columnNames = (1..columnCount).map(rsm::getColumnName)
+        val columns = columnNames.distinct()
+        return ResultSetLayout(RowSchema(columns), columns.map { columnNames.indexOf(it) + 1 }.toIntArray())
     } catch (e: SQLException) {
         throw IllegalStateException("ResultSummary Set Iterator initialization failed")
     }
 }
 
-private fun read(columns: List<String>, rs: ResultSet): Map<String, Any?> {
-    return columns.associateWith { col ->
-        try {
-            when (val obj: Any? = rs.getObject(col)) {
+private fun read(layout: ResultSetLayout, rs: ResultSet): IndexedRow {
+    val columns = layout.schema.columns
+    val values = arrayOfNulls<Any>(columns.size)
+    for (slot in columns.indices) {
+        values[slot] = try {
+            when (val obj: Any? = rs.getObject(layout.columnIndices[slot])) {
                 is ByteArray -> obj
                 is Timestamp -> OffsetDateTime.ofInstant(obj.toInstant(), UTC).toString()
                 else -> obj?.toString()
             }
-
         } catch (e: SQLException) {
-            logger.error("Unable to read col {}.", col, e)
+            logger.error("Unable to read col {}.", columns[slot], e)
+            null
         }
     }
-}
\ No newline at end of file
+    return layout.schema.newRow(values)
+}
+
+/**
+ * Whether [sql] orders its own result with an ORDER BY, rather than only ordering inside a subquery, a window or a
+ * function call. String literals, quoted identifiers and comments are skipped.
+ */
+internal fun hasTopLevelOrderBy(sql: String): Boolean {
+    val topLevel = StringBuilder(sql.length)
+    var depth = 0
+    var i = 0
+    while (i < sql.length) {
+        val c = sql[i]
+        val end = when {
+            c == '\'' || c == '"' -> sql.indexOf(c, i + 1)
+            sql.startsWith("--", i) -> sql.indexOf('\n', i)
+            sql.startsWith("/*", i) -> sql.indexOf("*/", i + 2).let { if (it < 0) it else it + 1 }
+            else -> i
+        }
+        when {
+            end < 0 -> break
+            end > i -> {
+                topLevel.append(' ')
+                i = end
+            }
+            c == '(' -> {
+                depth++
+                topLevel.append(' ')
+            }
+            c == ')' -> {
+                depth--
+                topLevel.append(' ')
+            }
+            depth == 0 -> topLevel.append(c)
+        }
+        i++
+    }
+    return ORDER_BY.containsMatchIn(topLevel)
+}
@@ -5,5 +5,37 @@ package com.openlattice.shuttle.payload
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
  */
 interface Payload {
+    /**
+     * Payloads with a fixed column layout should emit [IndexedRow]s sharing a single [RowSchema], which avoids
+     * allocating a hash map per row while still looking like a map to transforms.
+     */
     fun getPayload(): Iterable<Map<String, Any?>>
+
+    /**
+     * Whether every read returns the rows in the same order. Checkpoints count rows, so a flight is only resumed part
+     * way through an ordered payload. Other payloads are read again from the first row, which rewrites rows that were
+     * already integrated instead of skipping rows that were not.
+     */
+    val isOrdered: Boolean
+        get() = true
+
+    /**
+     * Returns the payload without its first [offset] rows, for resuming a flight from a checkpoint of an [isOrdered]
+     * payload. By default the skipped rows are still read from the source and thrown away; payloads that can start
+     * reading further in should override this.
+     */
+    fun getPayload(offset: Long): Iterable<Map<String, Any?>> {
+        if (offset <= 0) {
+            return getPayload()
+        }
+        return Iterable {
+            val rows = getPayload().iterator()
+            var skipped = 0L
+            while (skipped < offset && rows.hasNext()) {
+                rows.next()
+                skipped++
+            }
+            rows
+        }
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.payload
+
+import java.time.LocalDate
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.concurrent.atomic.AtomicLong
+
+private const val DEFAULT_WIDTH = 16
+private val EPOCH_DATE = LocalDate.of(1950, 1, 1)
+private val EPOCH_DATE_TIME = OffsetDateTime.of(2000, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC)
+
+enum class SyntheticType {
+    STRING,
+    INTEGER,
+    DECIMAL,
+    BOOLEAN,
+    DATE,
+    DATETIME
+}
+
+/**
+ * A column of a [SyntheticPayload].
+ *
+ * @param cardinality Maximum number of distinct values in the column. Defaults to a distinct value for every row.
+ * @param width Length of [SyntheticType.STRING] values.
+ */
+data class SyntheticColumn(
+        val name: String,
+        val type: SyntheticType = SyntheticType.STRING,
+        val cardinality: Long = Long.MAX_VALUE,
+        val width: Int = DEFAULT_WIDTH
+) {
+    init {
+        require(cardinality > 0) { "Cardinality of column $name must be positive, but got $cardinality." }
+        require(width > 0) { "Width of column $name must be positive, but got $width." }
+    }
+
+    companion object {
+        /**
+         * Parses a comma separated list of `name[:type[:cardinality[:width]]]` column specifications, for example
+         * `id:integer,name:string:5000:12,dob:date:20000`.
+         */
+        @JvmStatic
+        fun parse(specification: String): List<SyntheticColumn> {
+            return specification.split(',').filter { it.isNotBlank() }.map { column ->
+                val parts = column.trim().split(':')
+                require(parts.size <= 4) { "Invalid synthetic column specification: $column" }
+                SyntheticColumn(
+                        parts[0],
+                        parts.getOrNull(1)?.let { SyntheticType.valueOf(it.toUpperCase()) } ?: SyntheticType.STRING,
+                        parts.getOrNull(2)?.toLong() ?: Long.MAX_VALUE,
+                        parts.getOrNull(3)?.toInt() ?: DEFAULT_WIDTH
+                )
+            }
+        }
+    }
+}
+
+/**
+ * Generates [rows] rows of deterministic, pseudo random values for benchmarking without a real source.
+ *
+ * Values are strings formatted like the corresponding type would be in a CSV file. The same [seed] always produces the
+ * same rows. Each column draws from at most [SyntheticColumn.cardinality] distinct values independently of the other
+ * columns, so the number of distinct entities a flight produces can be controlled through the columns it keys on.
+ */
+class SyntheticPayload(
+        private val columns: List<SyntheticColumn>,
+        private val rows: Long,
+        private val seed: Long = 0
+) : Payload {
+    private val schema = RowSchema(columns.map { it.name })
+    private val generated = AtomicLong()
+
+    /**
+     * Rows handed out by every read of this payload so far.
+     */
+    val rowsGenerated: Long
+        get() = generated.get()
+
+    override fun getPayload(): Iterable<Map<String, Any?>> {
+        return getPayload(0)
+    }
+
+    override fun getPayload(offset: Long): Iterable<Map<String, Any?>> {
+        return Iterable {
+            object : Iterator<Map<String, Any?>> {
+                private var row = offset.coerceAtLeast(0)
+
+                override fun hasNext(): Boolean {
+                    return row < rows
+                }
+
+                override fun next(): Map<String, Any?> {
+                    if (!hasNext()) {
+                        throw NoSuchElementException()
+                    }
+                    val current = row++
+                    generated.incrementAndGet()
+                    return schema.newRow(Array(columns.size) { slot -> value(current, slot) })
+                }
+            }
+        }
+    }
+
+    private fun value(row: Long, slot: Int): String {
+        val column = columns[slot]
+        val k = java.lang.Long.remainderUnsigned(mix(seed + row * columns.size + slot), column.cardinality)
+        return when (column.type) {
+            SyntheticType.STRING -> k.toString(Character.MAX_RADIX).padStart(column.width, '0').takeLast(column.width)
+            SyntheticType.INTEGER -> k.toString()
+            SyntheticType.DECIMAL -> "${k / 100}.${(k % 100).toString().padStart(2, '0')}"
+            SyntheticType.BOOLEAN -> (k % 2 == 0L).toString()
+            SyntheticType.DATE -> EPOCH_DATE.plusDays(k % 36_500).toString()
+            SyntheticType.DATETIME -> EPOCH_DATE_TIME.plusSeconds(k % 1_000_000_000).toString()
+        }
+    }
+
+    /**
+     * The SplitMix64 finalizer, so that neighbouring rows get unrelated values.
+     */
+    private fun mix(value: Long): Long {
+        var z = value + -0x61c8864680b583ebL
+        z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+        z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+        return z xor (z ushr 31)
+    }
+}
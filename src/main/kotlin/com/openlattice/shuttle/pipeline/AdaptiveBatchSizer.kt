@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import com.openlattice.shuttle.metrics.ShuttleMetrics
+
+/**
+ * Picks the number of rows in each batch handed to the pipeline based on how long recent batches took to transform
+ * and write, and on how much heap is left.
+ *
+ * After every batch the size moves halfway towards the size that would have taken [targetLatencyMillis] at the
+ * observed per row latency, never changing by more than a factor of two in one step. While heap headroom is below
+ * [minimumHeapHeadroom] the size is halved instead. The size always stays within [minimumSize] and [maximumSize], so
+ * setting both to the same value gives a fixed batch size.
+ *
+ * @param tags Tags of the batch size histogram, usually the [com.openlattice.shuttle.metrics.FlightMetrics.tags] of the
+ * flight being sized.
+ */
+class AdaptiveBatchSizer(
+        initialSize: Int,
+        private val minimumSize: Int,
+        private val maximumSize: Int,
+        private val targetLatencyMillis: Long,
+        private val minimumHeapHeadroom: Double,
+        metrics: MetricRegistry,
+        tags: List<Pair<String, String>>,
+        private val heapHeadroom: () -> Double = ::currentHeapHeadroom
+) {
+    companion object {
+        /**
+         * @return The fraction of the maximum heap that is not currently in use.
+         */
+        @JvmStatic
+        fun currentHeapHeadroom(): Double {
+            val runtime = Runtime.getRuntime()
+            val used = runtime.totalMemory() - runtime.freeMemory()
+            return 1.0 - used.toDouble() / runtime.maxMemory()
+        }
+    }
+
+    init {
+        require(minimumSize in 1..maximumSize) {
+            "Batch size bounds must satisfy 0 < minimum <= maximum, but got [$minimumSize, $maximumSize]."
+        }
+    }
+
+    @Volatile
+    private var size = initialSize.coerceIn(minimumSize, maximumSize)
+    private val sizes = metrics.histogram(
+            ShuttleMetrics.tagged(MetricRegistry.name(AdaptiveBatchSizer::class.java, "size"), *tags.toTypedArray())
+    )
+
+    /**
+     * @return The size of the next batch.
+     */
+    fun nextSize(): Int {
+        val next = size
+        sizes.update(next)
+        return next
+    }
+
+    /**
+     * Records that a batch of [rows] rows took [latencyMillis] to transform and write.
+     */
+    @Synchronized
+    fun observe(rows: Int, latencyMillis: Long) {
+        if (rows <= 0) {
+            return
+        }
+
+        val next = if (heapHeadroom() < minimumHeapHeadroom) {
+            size / 2
+        } else {
+            val projected = rows.toDouble() * targetLatencyMillis / latencyMillis.coerceAtLeast(1)
+            val factor = (projected / size).coerceIn(0.5, 2.0)
+            (size * (1.0 + factor) / 2.0).toInt()
+        }
+
+        size = next.coerceIn(minimumSize, maximumSize)
+    }
+}
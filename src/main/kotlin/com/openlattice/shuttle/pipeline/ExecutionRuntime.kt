@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.pipeline
+
+import com.google.common.util.concurrent.ForwardingExecutorService
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.openlattice.shuttle.MissionParameters
+import com.openlattice.shuttle.metrics.ShuttleMetrics
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Semaphore
+import kotlin.math.ceil
+
+const val DEFAULT_MEMORY_BUDGET_FRACTION = 0.5
+
+/**
+ * The thread pools integrations run on, shared by every integration in the process so that concurrent integrations
+ * on shuttle server divide a fixed number of threads between them instead of each starting their own.
+ *
+ * Each pipeline role gets its own pool. Work in one role only ever waits on work in a later role, so a pool can never
+ * fill up with tasks that are waiting on tasks queued behind them in the same pool. Destination writes wait on the
+ * partition writes they fan out to, so those run on [partitionExecutor] rather than on [destinationExecutor].
+ *
+ * A single integration may use at most [jobShare] of each pool, see [quota]. Batches in flight in every integration
+ * reserve their estimated size from the one [memoryBudget], which is [memoryBudgetFraction] of the maximum heap.
+ *
+ * With [virtualThreads] enabled and a JDK that supports them, entity key id requests, uploads, destination writes and
+ * partition writes each run on a new virtual thread instead of a fixed pool and [ioThreads] only limits how many of
+ * them a pipeline stage admits at once. Transforms stay on bounded platform pools since they are CPU bound.
+ */
+class ExecutionRuntime(
+        val transformThreads: Int,
+        val ioThreads: Int,
+        val jobShare: Double = 1.0,
+        virtualThreads: Boolean = false,
+        memoryBudgetFraction: Double = DEFAULT_MEMORY_BUDGET_FRACTION
+) : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(ExecutionRuntime::class.java)
+
+        /**
+         * @param defaultJobShare The share of each pool a single integration may use when the configuration does not
+         * set one.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromParameters(parameters: MissionParameters, defaultJobShare: Double = 1.0): ExecutionRuntime {
+            val configuration = parameters.execution
+            return ExecutionRuntime(
+                    configuration.transformThreads,
+                    configuration.ioThreads,
+                    configuration.jobShare ?: defaultJobShare,
+                    configuration.virtualThreads,
+                    parameters.memoryBudgetFraction
+            )
+        }
+
+        /**
+         * Looks up `Executors.newVirtualThreadPerTaskExecutor` reflectively, since shuttle is still built for JDKs
+         * without virtual threads.
+         *
+         * @return A factory for virtual thread per task executors or null if this JDK does not support them.
+         */
+        private fun virtualThreadExecutors(): (() -> ExecutorService)? {
+            val factory = try {
+                Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor")
+            } catch (ex: NoSuchMethodException) {
+                return null
+            }
+
+            val create = { factory.invoke(null) as ExecutorService }
+            return try {
+                // Fails on JDKs where virtual threads are a preview feature that has not been enabled.
+                create().shutdown()
+                create
+            } catch (ex: InvocationTargetException) {
+                logger.warn("Virtual threads are not available on this JVM.", ex.targetException)
+                null
+            }
+        }
+
+        private fun pool(role: String, threads: Int): ListeningExecutorService {
+            return MoreExecutors.listeningDecorator(
+                    Executors.newFixedThreadPool(
+                            threads,
+                            ThreadFactoryBuilder().setNameFormat("shuttle-$role-%d").setDaemon(true).build()
+                    )
+            )
+        }
+    }
+
+    init {
+        require(transformThreads > 0 && ioThreads > 0) {
+            "Thread counts must be positive, but got $transformThreads transform and $ioThreads io threads."
+        }
+        require(jobShare > 0 && jobShare <= 1) { "Job share must be in (0, 1], but got $jobShare." }
+    }
+
+    val memoryBudget = MemoryBudget(
+            (Runtime.getRuntime().maxMemory() * memoryBudgetFraction).toLong(),
+            ShuttleMetrics.registry
+    )
+
+    val transformExecutor = pool("transform", transformThreads)
+    val impulsePool = ForkJoinPool(transformThreads)
+    private val virtualThreadExecutors = if (virtualThreads) {
+        virtualThreadExecutors().also {
+            if (it == null) {
+                logger.warn("Falling back to {} platform threads per io pool.", ioThreads)
+            }
+        }
+    } else {
+        null
+    }
+
+    /**
+     * Whether io runs on virtual threads. False when they were requested but the JVM does not support them.
+     */
+    val usesVirtualThreads = virtualThreadExecutors != null
+
+    val entityKeyIdExecutor = ioPool("ekids")
+    val uploadExecutor = ioPool("upload")
+    val destinationExecutor = ioPool("destinations")
+    val partitionExecutor = ioPool("partitions")
+
+    val executors: List<ExecutorService> = listOf(
+            transformExecutor,
+            impulsePool,
+            entityKeyIdExecutor,
+            uploadExecutor,
+            destinationExecutor,
+            partitionExecutor
+    )
+
+    /**
+     * Virtual thread pools are wrapped in a [ConcurrencyLimitedExecutorService] that admits [ioThreads] tasks at a time,
+     * across every integration on this runtime, just like a platform pool of that size would. Each role has its own
+     * limit, since tasks in one role wait on tasks in later roles.
+     */
+    private fun ioPool(role: String): ListeningExecutorService {
+        return virtualThreadExecutors
+                ?.let { MoreExecutors.listeningDecorator(ConcurrencyLimitedExecutorService(it(), ioThreads)) }
+                ?: pool(role, ioThreads)
+    }
+
+    /**
+     * @return The number of tasks a single integration may have queued or running on a pool of [threads] threads.
+     */
+    fun quota(threads: Int): Int {
+        return ceil(threads * jobShare).toInt().coerceIn(1, threads)
+    }
+
+    override fun close() {
+        executors.forEach { it.shutdownNow() }
+    }
+}
+
+/**
+ * Runs at most [permits] tasks of [delegate] at a time. Tasks beyond that wait for a permit on their own thread, which
+ * is cheap for virtual threads.
+ */
+internal class ConcurrencyLimitedExecutorService(
+        private val delegate: ExecutorService,
+        permits: Int
+) : ForwardingExecutorService() {
+    private val limiter = Semaphore(permits, true)
+
+    override fun delegate(): ExecutorService {
+        return delegate
+    }
+
+    override fun execute(command: Runnable) {
+        delegate.execute {
+            limiter.acquireUninterruptibly()
+            try {
+                command.run()
+            } finally {
+                limiter.release()
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Bounds the estimated number of bytes held by batches that are in the pipeline.
+ *
+ * Callers reserve an estimate before a batch enters the pipeline and block while the budget is exhausted. A
+ * reservation can later be resized to a better estimate without blocking, so a batch that is already in flight can
+ * always make progress; growing a reservation only delays admission of new batches. A single reservation larger than
+ * the whole budget is admitted on its own once every other reservation has been released.
+ */
+class MemoryBudget(val capacityBytes: Long, metrics: MetricRegistry) {
+    private val lock = ReentrantLock()
+    private val released = lock.newCondition()
+    private var availableBytes = capacityBytes
+
+    private val waiting = metrics.timer(MetricRegistry.name(MemoryBudget::class.java, "admission"))
+    private val reserved = metrics.counter(MetricRegistry.name(MemoryBudget::class.java, "reserved-bytes"))
+
+    init {
+        require(capacityBytes > 0) { "Memory budget must be positive, but got $capacityBytes bytes." }
+    }
+
+    /**
+     * Reserves [bytes] from the budget, blocking until they are available.
+     */
+    fun reserve(bytes: Long): Reservation {
+        val requested = bytes.coerceIn(0, capacityBytes)
+        val context = waiting.time()
+        try {
+            lock.withLock {
+                while (availableBytes < requested) {
+                    released.await()
+                }
+                availableBytes -= requested
+            }
+        } finally {
+            context.stop()
+        }
+        reserved.inc(requested)
+        return Reservation(requested)
+    }
+
+    private fun adjust(delta: Long) {
+        lock.withLock {
+            availableBytes -= delta
+            if (delta < 0) {
+                released.signalAll()
+            }
+        }
+        reserved.inc(delta)
+    }
+
+    inner class Reservation internal constructor(bytes: Long) : AutoCloseable {
+        @Volatile
+        var bytes: Long = bytes
+            private set
+
+        /**
+         * Replaces the reserved estimate with [bytes]. Never blocks.
+         */
+        @Synchronized
+        fun resize(bytes: Long) {
+            val resized = bytes.coerceIn(0, capacityBytes)
+            adjust(resized - this.bytes)
+            this.bytes = resized
+        }
+
+        override fun close() {
+            resize(0)
+        }
+    }
+}
+
+/**
+ * A [reservation] held on behalf of several [holders], such as the flights sharing a chunk of rows. It is closed once
+ * every holder has released it.
+ */
+class SharedReservation(private val reservation: MemoryBudget.Reservation, holders: Int) {
+    private val remaining = AtomicInteger(holders)
+
+    init {
+        if (holders <= 0) {
+            reservation.close()
+        }
+    }
+
+    fun release() {
+        if (remaining.decrementAndGet() == 0) {
+            reservation.close()
+        }
+    }
+}
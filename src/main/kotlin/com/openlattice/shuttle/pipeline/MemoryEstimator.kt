@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+
+package com.openlattice.shuttle.pipeline
+
+import com.openlattice.shuttle.destinations.AddressedDataHolder
+
+private const val SAMPLE_SIZE = 64
+private const val OBJECT_BYTES = 16L
+private const val ROW_BYTES = 64L
+private const val CELL_BYTES = 40L
+private const val ENTITY_BYTES = 160L
+private const val PROPERTY_BYTES = 96L
+private const val ASSOCIATION_BYTES = 96L
+
+/**
+ * Cheap, sampling based estimates of the heap used by rows and transformed batches. These are only meant to be
+ * within a small factor of the real footprint, which is enough to keep in-flight work well away from the heap limit.
+ */
+object MemoryEstimator {
+
+    @JvmStatic
+    fun estimateRows(rows: List<Map<String, Any?>>): Long {
+        if (rows.isEmpty()) {
+            return 0
+        }
+        val step = maxOf(1, rows.size / SAMPLE_SIZE)
+        var sampled = 0
+        var sampledBytes = 0L
+        for (index in rows.indices step step) {
+            val row = rows[index]
+            sampledBytes += ROW_BYTES + row.size * CELL_BYTES + row.values.sumOf { estimateValue(it) }
+            sampled++
+        }
+        return sampledBytes * rows.size / sampled
+    }
+
+    @JvmStatic
+    fun estimateBatch(batch: AddressedDataHolder): Long {
+        val entityBytes = batch.entities.values.sumOf { entities ->
+            if (entities.isEmpty()) {
+                0L
+            } else {
+                val sample = entities.asSequence().take(SAMPLE_SIZE).toList()
+                val sampledBytes = sample.sumOf { entity ->
+                    ENTITY_BYTES + 2L * entity.key.entityId.length + entity.details.values.sumOf { values ->
+                        PROPERTY_BYTES + values.sumOf { estimateValue(it) }
+                    }
+                }
+                sampledBytes * entities.size / sample.size
+            }
+        }
+        val associationBytes = batch.associations.values.sumOf { it.size * ASSOCIATION_BYTES }
+        return entityBytes + associationBytes
+    }
+
+    @JvmStatic
+    fun estimateValue(value: Any?): Long {
+        return when (value) {
+            null -> 0L
+            is String -> OBJECT_BYTES + 24L + 2L * value.length
+            is ByteArray -> OBJECT_BYTES + value.size
+            is Collection<*> -> OBJECT_BYTES + value.sumOf { CELL_BYTES + estimateValue(it) }
+            is Map<*, *> -> OBJECT_BYTES + value.entries.sumOf {
+                CELL_BYTES + estimateValue(it.key) + estimateValue(it.value)
+            }
+            else -> 2 * OBJECT_BYTES
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import java.util.concurrent.Callable
+import java.util.concurrent.Semaphore
+
+/**
+ * A single stage of the integration pipeline running on a pool of the [ExecutionRuntime].
+ *
+ * At most [capacity] batches can be queued or running in a stage at any time. Submitting to a full stage blocks the
+ * caller, so a slow downstream stage pushes back on the stages feeding it instead of letting batches pile up in memory.
+ * Blocked callers are admitted in arrival order, so concurrent flights feeding the same stage take turns. The
+ * capacity is also the share of the pool a single integration can take when several integrations run on the same
+ * runtime.
+ */
+class PipelineStage(
+        val name: String,
+        val executor: ListeningExecutorService,
+        capacity: Int,
+        metrics: MetricRegistry
+) {
+    private val regulator = Semaphore(capacity, true)
+    private val latency = metrics.timer(MetricRegistry.name(PipelineStage::class.java, name, "latency"))
+    private val waiting = metrics.timer(MetricRegistry.name(PipelineStage::class.java, name, "admission"))
+    private val depth = metrics.counter(MetricRegistry.name(PipelineStage::class.java, name, "depth"))
+
+    /**
+     * Submits a task to this stage, blocking the calling thread until the stage has capacity for it.
+     */
+    fun <T> submit(task: () -> T): ListenableFuture<T> {
+        val admission = waiting.time()
+        regulator.acquire()
+        admission.stop()
+        depth.inc()
+
+        val future = try {
+            executor.submit(Callable {
+                val context = latency.time()
+                try {
+                    task()
+                } finally {
+                    context.stop()
+                }
+            })
+        } catch (ex: Exception) {
+            depth.dec()
+            regulator.release()
+            throw ex
+        }
+
+        future.addListener(Runnable {
+            depth.dec()
+            regulator.release()
+        }, MoreExecutors.directExecutor())
+
+        return future
+    }
+}
@@ -0,0 +1,49 @@
+package com.openlattice.shuttle.checkpoint
+
+import com.google.common.io.Files
+import com.openlattice.shuttle.payload.Payload
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class CheckpointTest {
+
+    @Test
+    fun testCheckpointOnlyCoversContiguousBatches() {
+        val store = FileCheckpointStore(Files.createTempDir().toPath())
+        val tracker = CheckpointTracker(store, "flight", 100)
+        tracker.started(1, 10)
+        tracker.started(2, 20)
+        tracker.started(3, 30)
+
+        tracker.written(2)
+        assertNull(store.load("flight"))
+
+        tracker.written(1)
+        assertEquals(130L, store.load("flight"))
+
+        tracker.written(3)
+        assertEquals(160L, store.load("flight"))
+
+        store.clear("flight")
+        assertNull(store.load("flight"))
+    }
+
+    @Test
+    fun testFlightNamesAreKeptApart() {
+        val store = FileCheckpointStore(Files.createTempDir().toPath())
+        store.save("a/b", 1)
+        store.save("a b", 2)
+        assertEquals(1L, store.load("a/b"))
+        assertEquals(2L, store.load("a b"))
+    }
+
+    @Test
+    fun testPayloadSkipsToOffset() {
+        val payload = object : Payload {
+            override fun getPayload(): Iterable<Map<String, Any?>> = (0 until 5).map { mapOf("id" to it) }
+        }
+        assertEquals(listOf(3, 4), payload.getPayload(3).map { it["id"] })
+        assertEquals(listOf<Any?>(), payload.getPayload(10).map { it["id"] })
+    }
+}
@@ -0,0 +1,71 @@
+package com.openlattice.shuttle.destinations
+
+import com.openlattice.data.EntityKey
+import com.openlattice.data.UpdateType
+import com.openlattice.data.integration.Entity
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.*
+
+class AddressedDataHolderTest {
+
+    private val entitySetId = UUID.randomUUID()
+    private val name = UUID.randomUUID()
+    private val nickname = UUID.randomUUID()
+    private val key = EntityKey(entitySetId, "person-1")
+
+    private fun holder(vararg entities: Entity): AddressedDataHolder {
+        return AddressedDataHolder(
+                mutableMapOf(StorageDestination.POSTGRES to entities.toCollection(LinkedHashSet())),
+                mutableMapOf(),
+                1L
+        )
+    }
+
+    private fun batch() = holder(
+            Entity(key, mapOf(name to setOf<Any>("Ann"), nickname to setOf<Any>("A"))),
+            Entity(EntityKey(entitySetId, "person-2"), mapOf(name to setOf<Any>("Bob"))),
+            Entity(key, mapOf(name to setOf<Any>("Anne")))
+    )
+
+    private fun merged(updateType: UpdateType): Map<EntityKey, Map<UUID, Set<Any>>> {
+        val holder = batch()
+        assertEquals(1, holder.mergeEntities(mapOf(entitySetId to updateType)))
+        val entities = holder.entities.getValue(StorageDestination.POSTGRES)
+        assertEquals(listOf(key, EntityKey(entitySetId, "person-2")), entities.map { it.key })
+        return entities.associate { it.key to it.details }
+    }
+
+    @Test
+    fun testMerge() {
+        assertEquals(
+                mapOf(name to setOf("Ann", "Anne"), nickname to setOf("A")),
+                merged(UpdateType.Merge).getValue(key)
+        )
+    }
+
+    @Test
+    fun testPartialReplace() {
+        assertEquals(
+                mapOf(name to setOf("Anne"), nickname to setOf("A")),
+                merged(UpdateType.PartialReplace).getValue(key)
+        )
+    }
+
+    @Test
+    fun testReplace() {
+        assertEquals(mapOf(name to setOf("Anne")), merged(UpdateType.Replace).getValue(key))
+    }
+
+    @Test
+    fun testDistinctEntitiesAreUntouched() {
+        val entities = linkedSetOf(
+                Entity(key, mapOf(name to setOf<Any>("Ann"))),
+                Entity(EntityKey(entitySetId, "person-2"), mapOf(name to setOf<Any>("Bob")))
+        )
+        val holder = AddressedDataHolder(mutableMapOf(StorageDestination.POSTGRES to entities), mutableMapOf(), 1L)
+
+        assertEquals(0, holder.mergeEntities(mapOf()))
+        assertEquals(entities, holder.entities.getValue(StorageDestination.POSTGRES))
+    }
+}
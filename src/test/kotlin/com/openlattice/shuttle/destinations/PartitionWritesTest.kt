@@ -0,0 +1,159 @@
+package com.openlattice.shuttle.destinations
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.MoreExecutors
+import com.openlattice.data.UpdateType
+import com.openlattice.data.storage.partitions.getPartition
+import com.openlattice.edm.EntitySet
+import com.openlattice.mapstores.TestDataFactory
+import com.openlattice.shuttle.pipeline.PipelineStage
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class PartitionWritesTest {
+    private val propertyTypes = List(3) { TestDataFactory.propertyType() }.associateBy { it.id }
+    private val entityType = TestDataFactory.entityType(*propertyTypes.values.toTypedArray())
+    private val entityTypes = mapOf(entityType.id to entityType)
+
+    private fun entitySet(): EntitySet {
+        return TestDataFactory.entitySetWithType(entityType.id).apply {
+            partitions.clear()
+            partitions.addAll(0 until 8)
+        }
+    }
+
+    private fun entities(count: Int, vararg propertyTypeIds: UUID): List<Pair<UUID, Map<UUID, Set<Any>>>> {
+        return List(count) { UUID.randomUUID() to propertyTypeIds.associateWith { setOf<Any>("value") } }
+    }
+
+    @Test
+    fun testEntitiesAreGroupedByPartition() {
+        val entitySet = entitySet()
+        val entities = entities(50, *propertyTypes.keys.toTypedArray())
+        val partitions = entitySet.partitions.toList()
+
+        val writes = planPartitionWrites(
+                mapOf(entitySet.id to entities),
+                mapOf(entitySet.id to UpdateType.Merge),
+                mapOf(entitySet.id to entitySet),
+                entityTypes,
+                propertyTypes
+        )
+
+        assertEquals(writes.map { it.partition }.sorted(), writes.map { it.partition })
+        assertEquals(writes.size, writes.map { it.partition }.toSet().size)
+        assertEquals(entities.toMap(), writes.flatMap { it.entities.toList() }.toMap())
+        writes.forEach { write ->
+            assertSame(entitySet, write.entitySet)
+            assertTrue(write.entities.keys.all { getPartition(it, partitions) == write.partition })
+            assertEquals(propertyTypes, write.propertyTypes)
+        }
+    }
+
+    @Test
+    fun testPartitionsOfEntitySetShareVersions() {
+        val first = entitySet()
+        val second = entitySet()
+        var now = 1000L
+
+        val writes = planPartitionWrites(
+                mapOf(
+                        first.id to entities(50, *propertyTypes.keys.toTypedArray()),
+                        second.id to entities(50, *propertyTypes.keys.toTypedArray())
+                ),
+                mapOf(first.id to UpdateType.Replace, second.id to UpdateType.Replace),
+                mapOf(first.id to first, second.id to second),
+                entityTypes,
+                propertyTypes
+        ) { now++ }
+
+        val versions = writes.groupBy({ it.entitySet.id }, { it.tombstoneVersion to it.writeVersion })
+        assertEquals(setOf(1000L to 1001L), versions.getValue(first.id).toSet())
+        assertEquals(setOf(1001L to 1002L), versions.getValue(second.id).toSet())
+        assertTrue(versions.values.all { it.size > 1 })
+    }
+
+    @Test
+    fun testTombstonedPropertyTypesFollowUpdateType() {
+        val (written, other) = propertyTypes.keys.toList()
+        val replace = entitySet()
+        val partialReplace = entitySet()
+        val merge = entitySet()
+
+        val writes = planPartitionWrites(
+                mapOf(
+                        replace.id to entities(10, written),
+                        partialReplace.id to entities(10, written),
+                        merge.id to entities(10, written, other)
+                ),
+                mapOf(
+                        replace.id to UpdateType.Replace,
+                        partialReplace.id to UpdateType.PartialReplace,
+                        merge.id to UpdateType.Merge
+                ),
+                listOf(replace, partialReplace, merge).associateBy { it.id },
+                entityTypes,
+                propertyTypes
+        ).groupBy({ it.entitySet.id }, { it.tombstonedPropertyTypeIds })
+
+        assertEquals(setOf(propertyTypes.keys), writes.getValue(replace.id).toSet())
+        assertEquals(setOf(setOf(written, other)), writes.getValue(partialReplace.id).toSet())
+        assertEquals(setOf(setOf<UUID>()), writes.getValue(merge.id).toSet())
+    }
+
+    @Test
+    fun testFailedWriteSurfacesOriginalCause() {
+        val executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2))
+        val stage = PipelineStage("partitions", executor, 2, MetricRegistry())
+        val failure = IllegalStateException("partition 3 failed")
+
+        try {
+            writeConcurrently(stage, (0 until 8).toList()) { partition ->
+                if (partition == 3) {
+                    throw failure
+                }
+                1L
+            }
+            throw AssertionError("Expected the failed partition to be rethrown")
+        } catch (ex: IllegalStateException) {
+            assertSame(failure, ex)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testConcurrentWritesAreSummed() {
+        val executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2))
+        val stage = PipelineStage("partitions", executor, 2, MetricRegistry())
+        try {
+            assertEquals(28L, writeConcurrently(stage, (0 until 8).toList()) { it.toLong() })
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testConcurrentWritesStayWithinStageCapacity() {
+        val executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8))
+        val stage = PipelineStage("partitions", executor, 2, MetricRegistry())
+        val running = AtomicInteger()
+        val mostRunning = AtomicInteger()
+        try {
+            writeConcurrently(stage, (0 until 16).toList()) {
+                mostRunning.accumulateAndGet(running.incrementAndGet()) { most, now -> maxOf(most, now) }
+                Thread.sleep(5)
+                running.decrementAndGet()
+                1L
+            }
+            assertTrue(mostRunning.get() <= 2)
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
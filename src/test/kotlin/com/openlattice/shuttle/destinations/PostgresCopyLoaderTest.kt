@@ -0,0 +1,54 @@
+package com.openlattice.shuttle.destinations
+
+import com.openlattice.data.storage.upsertPropertyValueSql
+import com.openlattice.mapstores.TestDataFactory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PostgresCopyLoaderTest {
+
+    private fun copyText(value: Any): String {
+        return StringBuilder().also { appendValue(it, value) }.toString()
+    }
+
+    @Test
+    fun testDelimitersAreEscaped() {
+        assertEquals("a\\tb\\nc\\rd\\\\e", copyText("a\tb\nc\rd\\e"))
+        assertEquals("plain text", copyText("plain text"))
+        assertEquals("42", copyText(42L))
+    }
+
+    @Test
+    fun testByteaIsEscapedHex() {
+        assertEquals("\\\\x00ff10", copyText(byteArrayOf(0, -1, 16)))
+        assertEquals("\\\\x", StringBuilder().also { appendBytea(it, byteArrayOf()) }.toString())
+    }
+
+    @Test
+    fun testMergeResolvesConflictsLikeUpsert() {
+        val propertyType = TestDataFactory.propertyType()
+        val column = storageColumn(propertyType)
+        val upsertSql = upsertPropertyValueSql(propertyType)
+        val conflict = upsertSql.substring(upsertSql.indexOf("ON CONFLICT", ignoreCase = true))
+        val merge = mergeSql(stagingTable(column), column, upsertSql)
+
+        assertTrue(merge.endsWith(conflict))
+        assertFalse(conflict.contains("?"))
+        assertEquals(2, merge.count { it == '?' })
+        assertTrue(Regex("versions\\s*=\\s*\\w+\\.versions\\s*\\|\\|", RegexOption.IGNORE_CASE).containsMatchIn(conflict))
+        assertTrue(Regex("last_write\\s*=\\s*GREATEST\\(", RegexOption.IGNORE_CASE).containsMatchIn(conflict))
+        assertTrue(Regex("CASE\\s+WHEN\\s+abs\\(", RegexOption.IGNORE_CASE).containsMatchIn(conflict))
+    }
+
+    @Test
+    fun testStagingTableIsTemporaryAndEmpty() {
+        val column = storageColumn(TestDataFactory.propertyType())
+        val sql = createStagingTableSql(stagingTable(column), column)
+
+        assertTrue(sql.startsWith("CREATE TEMPORARY TABLE IF NOT EXISTS ${stagingTable(column)} "))
+        assertTrue(sql.endsWith("WITH NO DATA"))
+        assertTrue(sql.contains("$column AS value"))
+    }
+}
@@ -0,0 +1,63 @@
+package com.openlattice.shuttle.destinations
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.lang.reflect.Proxy
+import java.sql.PreparedStatement
+
+class StatementBatcherTest {
+
+    private class CountingStatement {
+        var pending = 0
+        var executions = 0
+
+        val statement = Proxy.newProxyInstance(
+                PreparedStatement::class.java.classLoader,
+                arrayOf(PreparedStatement::class.java)
+        ) { _, method, _ ->
+            when (method.name) {
+                "addBatch" -> {
+                    pending++
+                    null
+                }
+                "executeBatch" -> {
+                    executions++
+                    IntArray(pending) { 1 }.also { pending = 0 }
+                }
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as PreparedStatement
+    }
+
+    @Test
+    fun testBatchesSpanEntities() {
+        val names = CountingStatement()
+        val ages = CountingStatement()
+        val batcher = StatementBatcher(1_000)
+
+        repeat(500) {
+            batcher.add(names.statement)
+            batcher.add(ages.statement)
+        }
+
+        assertEquals(0, names.executions + ages.executions)
+        assertEquals(1_000L, batcher.flush())
+        assertEquals(1, names.executions)
+        assertEquals(1, ages.executions)
+        assertEquals(2L, batcher.roundTrips)
+    }
+
+    @Test
+    fun testFullBatchesAreSent() {
+        val names = CountingStatement()
+        val batcher = StatementBatcher(100)
+
+        repeat(250) { batcher.add(names.statement) }
+        assertEquals(2, names.executions)
+
+        assertEquals(250L, batcher.flush())
+        assertEquals(3, names.executions)
+        assertEquals(250L, batcher.flush())
+        assertEquals(3, names.executions)
+    }
+}
@@ -0,0 +1,114 @@
+package com.openlattice.shuttle.destinations
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.postgresql.PGConnection
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.Statement
+
+class StatementCacheTest {
+
+    private class FakeConnection {
+        var closed = false
+        var prepared = 0
+        val statements = mutableListOf<FakeStatement>()
+        val executed = mutableListOf<String>()
+
+        val connection = Proxy.newProxyInstance(
+                Connection::class.java.classLoader,
+                arrayOf(Connection::class.java, PGConnection::class.java)
+        ) { proxy, method, _ ->
+            when (method.name) {
+                "unwrap" -> proxy
+                "isClosed" -> closed
+                "prepareStatement" -> {
+                    prepared++
+                    FakeStatement().also { statements.add(it) }.statement
+                }
+                "createStatement" -> Proxy.newProxyInstance(
+                        Statement::class.java.classLoader,
+                        arrayOf(Statement::class.java)
+                ) { _, statementMethod, args ->
+                    when (statementMethod.name) {
+                        "execute" -> executed.add(args[0] as String)
+                        "close" -> null
+                        else -> throw UnsupportedOperationException(statementMethod.name)
+                    }
+                } as Statement
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as Connection
+    }
+
+    private class FakeStatement {
+        var closed = false
+
+        val statement = Proxy.newProxyInstance(
+                PreparedStatement::class.java.classLoader,
+                arrayOf(PreparedStatement::class.java)
+        ) { _, method, _ ->
+            when (method.name) {
+                "isClosed" -> closed
+                "close" -> {
+                    closed = true
+                    null
+                }
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as PreparedStatement
+    }
+
+    @Test
+    fun testStatementsSurviveAcrossBorrows() {
+        val fake = FakeConnection()
+        val cache = StatementCache()
+
+        val first = cache.forConnection(fake.connection).prepare("SELECT 1")
+        val second = cache.forConnection(fake.connection).prepare("SELECT 1")
+        cache.forConnection(fake.connection).prepare("SELECT 2")
+
+        assertSame(first, second)
+        assertEquals(2, fake.prepared)
+
+        cache.close()
+        assertTrue(fake.statements.all { it.closed })
+    }
+
+    @Test
+    fun testInvalidatedAndClosedConnectionsArePreparedAgain() {
+        val fake = FakeConnection()
+        val cache = StatementCache()
+
+        val first = cache.forConnection(fake.connection).prepare("SELECT 1")
+        cache.invalidate(fake.connection)
+        assertTrue(fake.statements.single().closed)
+
+        val second = cache.forConnection(fake.connection).prepare("SELECT 1")
+        assertNotSame(first, second)
+
+        fake.closed = true
+        val other = FakeConnection()
+        cache.forConnection(other.connection)
+        assertTrue(fake.statements.all { it.closed })
+    }
+
+    @Test
+    fun testTemporaryTablesAreCreatedOncePerSession() {
+        val fake = FakeConnection()
+        val cache = StatementCache()
+
+        cache.forConnection(fake.connection).createTemporaryTable("a", "CREATE a")
+        cache.forConnection(fake.connection).createTemporaryTable("a", "CREATE a")
+        cache.forConnection(fake.connection).createTemporaryTable("b", "CREATE b")
+        assertEquals(listOf("CREATE a", "CREATE b"), fake.executed)
+
+        cache.invalidate(fake.connection)
+        cache.forConnection(fake.connection).createTemporaryTable("a", "CREATE a")
+        assertEquals(listOf("CREATE a", "CREATE b", "CREATE a"), fake.executed)
+    }
+}
@@ -0,0 +1,138 @@
+package com.openlattice.shuttle.destinations
+
+import com.dataloom.mappers.ObjectMappers
+import com.fasterxml.jackson.module.kotlin.readValue
+import com.openlattice.data.util.PostgresDataHasher
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.postgres.JsonDeserializer
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+class TypedNormalizerTest {
+    private val mapper = ObjectMappers.newJsonMapper()
+
+    private val values: Map<EdmPrimitiveTypeKind, List<Any>> = mapOf(
+            EdmPrimitiveTypeKind.String to listOf("value", "", " padded "),
+            EdmPrimitiveTypeKind.Boolean to listOf(true, false, "true", "True", "TRUE", "false", "FALSE", "yes", "1"),
+            EdmPrimitiveTypeKind.Int16 to listOf(
+                    7.toShort(), 7, 7L, "7", "+7", "-32768", "32767", "32768", "-32769", 70000, "7.5", "seven"
+            ),
+            EdmPrimitiveTypeKind.Int32 to listOf(
+                    7.toShort(), 7, 7L, "7", "+7", "-2147483648", "2147483648", Long.MAX_VALUE, "7.0", "seven"
+            ),
+            EdmPrimitiveTypeKind.Int64 to listOf(
+                    7.toShort(), 7, 7L, "7", "+7", "-9223372036854775808", "9223372036854775808", "0x10", "seven"
+            ),
+            EdmPrimitiveTypeKind.Double to listOf(
+                    1.5, 0.1, 0.1f, 7, 7L, 7.toShort(), "1.5", "+1.5", "-1e3", "7", Double.NaN,
+                    Double.POSITIVE_INFINITY, "NaN", "Infinity", "-Infinity", "one"
+            ),
+            EdmPrimitiveTypeKind.Guid to listOf(
+                    UUID.fromString("0b5a3b4e-3c3a-4c5e-9d3e-7a2b6c8d9e0f"),
+                    "0b5a3b4e-3c3a-4c5e-9d3e-7a2b6c8d9e0f",
+                    "0B5A3B4E-3C3A-4C5E-9D3E-7A2B6C8D9E0F",
+                    "0b5a3b4e3c3a4c5e9d3e7a2b6c8d9e0f",
+                    "not a uuid"
+            ),
+            EdmPrimitiveTypeKind.Date to listOf(
+                    LocalDate.of(2020, 1, 2), "2020-01-02", "2020-1-2", "01/02/2020", "not a date"
+            ),
+            EdmPrimitiveTypeKind.DateTimeOffset to listOf(
+                    OffsetDateTime.of(2020, 1, 2, 3, 4, 5, 0, ZoneOffset.UTC),
+                    OffsetDateTime.of(2020, 1, 2, 3, 4, 5, 123_000_000, ZoneOffset.ofHours(5)),
+                    "2020-01-02T03:04:05Z",
+                    "2020-01-02T03:04:05+05:00",
+                    "2020-01-02T03:04:05.123456Z",
+                    "2020-01-02T03:04:05",
+                    "2020-01-02",
+                    "not a timestamp"
+            ),
+            EdmPrimitiveTypeKind.TimeOfDay to listOf(
+                    LocalTime.of(3, 4, 5), "03:04:05", "03:04", "03:04:05.123", "3:04 PM", "not a time"
+            )
+    )
+
+    private fun propertyType(datatype: EdmPrimitiveTypeKind): PropertyType {
+        return PropertyType(
+                UUID.randomUUID(),
+                FullQualifiedName("test", datatype.name.toLowerCase()),
+                datatype.name,
+                Optional.empty(),
+                setOf(),
+                datatype
+        )
+    }
+
+    /**
+     * The json round trip and validation PostgresDestination used for every entity before TypedNormalizer.
+     */
+    private fun reference(
+            details: Map<UUID, Set<Any>>,
+            propertyTypes: Map<UUID, PropertyType>
+    ): Map<UUID, Set<Any>> {
+        val propertyValues = mapper.readValue<Map<UUID, Set<Any>>>(mapper.writeValueAsBytes(details))
+        return JsonDeserializer.validateFormatAndNormalize(propertyValues, propertyTypes) {
+            "Error validating during integration"
+        }
+    }
+
+    private fun result(normalize: () -> Map<UUID, Set<Any>>): Result<Map<UUID, Set<Any>>> {
+        return try {
+            Result.success(normalize())
+        } catch (ex: Exception) {
+            Result.failure(ex)
+        }
+    }
+
+    @Test
+    fun testNormalizeMatchesJsonRoundTrip() {
+        values.forEach { (datatype, datatypeValues) ->
+            val propertyType = propertyType(datatype)
+            val propertyTypes = mapOf(propertyType.id to propertyType)
+            val normalizer = TypedNormalizer(propertyTypes)
+
+            datatypeValues.forEach { value ->
+                val details = mapOf(propertyType.id to setOf(value))
+                val message = "$datatype value $value (${value.javaClass.simpleName})"
+                val expected = result { reference(details, propertyTypes) }
+                val actual = result { normalizer.normalize(details) }
+
+                assertEquals(message, expected.exceptionOrNull()?.javaClass, actual.exceptionOrNull()?.javaClass)
+                if (expected.isSuccess) {
+                    val expectedValues = expected.getOrThrow().getValue(propertyType.id)
+                    val actualValues = actual.getOrThrow().getValue(propertyType.id)
+                    assertEquals(message, expectedValues, actualValues)
+                    assertEquals(message, expectedValues.map { it.javaClass }, actualValues.map { it.javaClass })
+                    expectedValues.zip(actualValues).forEach { (expectedValue, actualValue) ->
+                        assertArrayEquals(
+                                message,
+                                PostgresDataHasher.hashObject(expectedValue, datatype),
+                                PostgresDataHasher.hashObject(actualValue, datatype)
+                        )
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testMixedDetailsMatchJsonRoundTrip() {
+        val propertyTypes = values.keys.map(::propertyType).associateBy { it.id }
+        val details = propertyTypes.values.associate { propertyType ->
+            val valid = values.getValue(propertyType.datatype).filter { value ->
+                result { reference(mapOf(propertyType.id to setOf(value)), propertyTypes) }.isSuccess
+            }
+            propertyType.id to valid.toSet()
+        }
+
+        assertEquals(reference(details, propertyTypes), TypedNormalizer(propertyTypes).normalize(details))
+    }
+}
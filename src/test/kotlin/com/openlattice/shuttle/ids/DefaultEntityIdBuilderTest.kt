@@ -0,0 +1,46 @@
+package com.openlattice.shuttle.ids
+
+import com.openlattice.ApiHelpers
+import org.junit.Assert
+import org.junit.Test
+import java.time.LocalDate
+import java.util.*
+
+class DefaultEntityIdBuilderTest {
+    private val builder = DefaultEntityIdBuilder(0)
+
+    @Test
+    fun testMatchesApiHelpers() {
+        val first = UUID.randomUUID()
+        val second = UUID.randomUUID()
+        val third = UUID.randomUUID()
+        val key = linkedSetOf(first, second, third)
+
+        val cases = listOf<Map<UUID, Set<Any>>>(
+                mapOf(first to setOf("AES"), second to setOf("CTR"), third to setOf("256")),
+                mapOf(first to setOf("b", "a", "c"), second to setOf(12, 3), third to setOf(LocalDate.of(1987, 6, 15))),
+                mapOf(first to setOf("with space"), second to setOf("a,b;c/d?e=f&g"), third to setOf("~!@#$%^()+")),
+                mapOf(first to setOf("naïve café"), second to setOf("日本語"), third to setOf("😀 emoji")),
+                mapOf(first to setOf("a"), second to setOf("ab"), third to setOf("abc")),
+                mapOf(first to setOf("x"), second to setOf(), third to setOf("y"))
+        )
+
+        cases.forEach { properties ->
+            Assert.assertEquals(
+                    ApiHelpers.generateDefaultEntityId(key, properties),
+                    builder.build(key, properties)
+            )
+        }
+    }
+
+    @Test
+    fun testReusesBuffersAcrossIds() {
+        val propertyTypeId = UUID.randomUUID()
+        val key = setOf(propertyTypeId)
+        val long = mapOf<UUID, Set<Any>>(propertyTypeId to setOf("x".repeat(1_000)))
+        val short = mapOf<UUID, Set<Any>>(propertyTypeId to setOf("y"))
+
+        Assert.assertEquals(ApiHelpers.generateDefaultEntityId(key, long), builder.build(key, long))
+        Assert.assertEquals(ApiHelpers.generateDefaultEntityId(key, short), builder.build(key, short))
+    }
+}
@@ -0,0 +1,61 @@
+package com.openlattice.shuttle.ids
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.io.Files
+import com.openlattice.data.EntityKey
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+
+class EntityKeyIdCacheTest {
+
+    private val entitySetId = UUID.randomUUID()
+
+    @Test
+    fun testOnlyUnseenKeysAreLookedUp() {
+        val cache = EntityKeyIdCache(1024 * 1024, MetricRegistry())
+        val lookups = mutableListOf<Set<EntityKey>>()
+        val lookup = { keys: Set<EntityKey> ->
+            lookups.add(keys)
+            keys.map { UUID.nameUUIDFromBytes(it.entityId.toByteArray()) }
+        }
+
+        val first = setOf(EntityKey(entitySetId, "a"), EntityKey(entitySetId, "b"))
+        val second = setOf(EntityKey(entitySetId, "b"), EntityKey(entitySetId, "c"))
+
+        val firstIds = cache.getEntityKeyIds(first, lookup)
+        val secondIds = cache.getEntityKeyIds(second, lookup)
+
+        assertEquals(listOf(first, setOf(EntityKey(entitySetId, "c"))), lookups)
+        assertEquals(firstIds.getValue(EntityKey(entitySetId, "b")), secondIds.getValue(EntityKey(entitySetId, "b")))
+        assertEquals(UUID.nameUUIDFromBytes("c".toByteArray()), secondIds.getValue(EntityKey(entitySetId, "c")))
+    }
+
+    @Test
+    fun testSpillStoreRoundTrip() {
+        val store = EntityKeyIdSpillStore(Files.createTempDir().toPath())
+        store.use {
+            val entityKey = EntityKey(entitySetId, "person-1")
+            val entityKeyId = UUID.randomUUID()
+            it.put(entityKey, entityKeyId)
+
+            assertEquals(entityKeyId, it.get(entityKey))
+            assertNull(it.get(EntityKey(entitySetId, "person-2")))
+        }
+    }
+
+    @Test
+    fun testEvictedKeysAreServedFromSpill() {
+        val metrics = MetricRegistry()
+        val cache = EntityKeyIdCache(1024, metrics, EntityKeyIdSpillStore(Files.createTempDir().toPath()))
+        val keys = (0 until 100).map { EntityKey(entitySetId, "person-$it") }.toSet()
+        val ids = cache.getEntityKeyIds(keys) { unseen -> unseen.map { UUID.randomUUID() } }
+
+        assertTrue(cache.size() < keys.size)
+        val again = cache.getEntityKeyIds(keys) { throw IllegalStateException("All keys should be cached.") }
+        assertEquals(ids, again)
+        cache.close()
+    }
+}
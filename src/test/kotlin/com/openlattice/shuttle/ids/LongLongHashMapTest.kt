@@ -0,0 +1,38 @@
+package com.openlattice.shuttle.ids
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.*
+
+class LongLongHashMapTest {
+
+    @Test
+    fun testMatchesHashMapAcrossResizes() {
+        val map = LongLongHashMap(4)
+        val expected = HashMap<Long, Long>()
+        val random = Random(0)
+
+        repeat(50_000) {
+            // A narrow key range makes sure some keys are overwritten.
+            val key = random.nextInt(40_000).toLong() * -0x61c8864680b583ebL
+            val value = random.nextInt(Int.MAX_VALUE).toLong()
+            map.put(key, value)
+            expected[key] = value
+        }
+
+        assertEquals(expected.size, map.size)
+        expected.forEach { (key, value) -> assertEquals(value, map.get(key)) }
+        assertEquals(-1L, map.get(12345L))
+    }
+
+    @Test
+    fun testZeroKeyAndValue() {
+        val map = LongLongHashMap()
+        assertEquals(-1L, map.get(0L))
+        map.put(0L, 0L)
+        assertEquals(0L, map.get(0L))
+        map.clear()
+        assertEquals(-1L, map.get(0L))
+        assertEquals(0, map.size)
+    }
+}
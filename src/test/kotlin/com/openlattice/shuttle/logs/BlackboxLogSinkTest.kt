@@ -0,0 +1,53 @@
+package com.openlattice.shuttle.logs
+
+import com.openlattice.shuttle.IntegrationStatus
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class BlackboxLogSinkTest {
+
+    @Test
+    fun testEntriesAreCoalescedPerFlight() {
+        val stored = mutableListOf<Triple<String, Set<String>, IntegrationStatus>>()
+        val statuses = mutableListOf<IntegrationStatus>()
+        val sink = BlackboxLogSink(
+                1_000,
+                60_000,
+                { name, log, status -> stored.add(Triple(name, log.toSet(), status)) },
+                { statuses.add(it) }
+        )
+
+        sink.append("a", setOf("one"), IntegrationStatus.IN_PROGRESS)
+        sink.append("a", setOf("two"), IntegrationStatus.IN_PROGRESS)
+        sink.append("b", setOf("three"), IntegrationStatus.IN_PROGRESS)
+        assertEquals(0, stored.size)
+
+        sink.flush()
+        sink.append("a", setOf("four"), IntegrationStatus.IN_PROGRESS)
+        sink.flush()
+
+        assertEquals(
+                listOf(
+                        Triple("a", setOf("one", "two"), IntegrationStatus.IN_PROGRESS),
+                        Triple("b", setOf("three"), IntegrationStatus.IN_PROGRESS),
+                        Triple("a", setOf("four"), IntegrationStatus.IN_PROGRESS)
+                ),
+                stored
+        )
+        assertEquals(listOf(IntegrationStatus.IN_PROGRESS), statuses)
+        sink.close()
+    }
+
+    @Test
+    fun testTerminalStatusIsFlushedImmediately() {
+        val stored = mutableListOf<String>()
+        val statuses = mutableListOf<IntegrationStatus>()
+        val sink = BlackboxLogSink(1_000, 60_000, { name, _, _ -> stored.add(name) }, { statuses.add(it) })
+
+        sink.append("a", setOf("done"), IntegrationStatus.SUCCEEDED)
+
+        assertEquals(listOf("a"), stored)
+        assertEquals(listOf(IntegrationStatus.SUCCEEDED), statuses)
+        sink.close()
+    }
+}
@@ -0,0 +1,54 @@
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.MetricRegistry
+import com.openlattice.shuttle.destinations.StorageDestination
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FlightMetricsTest {
+
+    @Test
+    fun testCloseRemovesOnlyMetricsOfTheFlight() {
+        val registry = MetricRegistry()
+        val people = FlightMetrics(registry, "people", "run")
+        val places = FlightMetrics(registry, "people, places", "run")
+
+        people.impulse.time().stop()
+        people.entityWrites(StorageDestination.POSTGRES).time().stop()
+        people.retries(StorageDestination.REST).mark()
+        people.batchesInFlight { 1L }
+        registry.histogram(ShuttleMetrics.tagged("size", *people.tags.toTypedArray()))
+        places.impulse.time().stop()
+        places.batchesInFlight { 2L }
+        registry.counter("untagged")
+
+        people.close()
+
+        assertEquals(setOf("untagged"), registry.names.filter { !it.contains("{") }.toSet())
+        assertTrue(registry.names.filter { it.contains("{") }.all { it.contains("flight=people_ places") })
+        assertEquals(2, registry.names.count { it.contains("flight=people_ places") })
+    }
+
+    @Test
+    fun testRunsOfFlightsWithTheSameNameAreIndependent() {
+        val registry = MetricRegistry()
+        val first = FlightMetrics(registry, "people", "first")
+        val second = FlightMetrics(registry, "people", "second")
+
+        first.batchesInFlight { 1L }
+        second.batchesInFlight { 2L }
+        first.impulse.time().stop()
+        second.impulse.time().stop()
+
+        assertEquals(4, registry.names.size)
+        assertEquals(setOf(1L, 2L), registry.gauges.values.map { it.value }.toSet())
+
+        first.close()
+
+        assertEquals(2, registry.names.size)
+        assertTrue(registry.names.all { it.contains("run=second") })
+        assertEquals(1L, second.impulse.count)
+        assertEquals(2L, registry.gauges.values.single().value)
+    }
+}
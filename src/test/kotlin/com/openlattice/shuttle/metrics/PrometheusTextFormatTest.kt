@@ -0,0 +1,42 @@
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class PrometheusTextFormatTest {
+
+    @Test
+    fun testTagsRoundTrip() {
+        val name = ShuttleMetrics.tagged("shuttle.writes", FLIGHT_TAG to "people, {v2}", DESTINATION_TAG to "POSTGRES")
+        val (base, tags) = ShuttleMetrics.untagged(name)
+
+        Assert.assertEquals("shuttle.writes", base)
+        Assert.assertEquals(listOf(FLIGHT_TAG to "people_ _v2_", DESTINATION_TAG to "POSTGRES"), tags)
+        Assert.assertEquals("shuttle.reads" to listOf<Pair<String, String>>(), ShuttleMetrics.untagged("shuttle.reads"))
+    }
+
+    @Test
+    fun testFormat() {
+        val registry = MetricRegistry()
+        registry.counter("shuttle.depth").inc(3)
+        registry.meter(ShuttleMetrics.tagged("shuttle.uploads", FLIGHT_TAG to "a")).mark(5)
+        registry.meter(ShuttleMetrics.tagged("shuttle.uploads", FLIGHT_TAG to "b\"")).mark(7)
+        registry.timer("shuttle.impulse").update(2, TimeUnit.SECONDS)
+        registry.register("shuttle.name", Gauge<String> { "not a number" })
+
+        val lines = PrometheusTextFormat.format(registry).lines()
+
+        Assert.assertTrue(lines.contains("# TYPE shuttle_depth gauge"))
+        Assert.assertTrue(lines.contains("shuttle_depth 3.0"))
+        Assert.assertEquals(1, lines.count { it == "# TYPE shuttle_uploads_total counter" })
+        Assert.assertTrue(lines.contains("shuttle_uploads_total{flight=\"a\"} 5.0"))
+        Assert.assertTrue(lines.contains("shuttle_uploads_total{flight=\"b\\\"\"} 7.0"))
+        Assert.assertTrue(lines.contains("# TYPE shuttle_impulse_seconds summary"))
+        Assert.assertTrue(lines.contains("shuttle_impulse_seconds{quantile=\"0.99\"} 2.0"))
+        Assert.assertTrue(lines.contains("shuttle_impulse_seconds_count 1.0"))
+        Assert.assertTrue(lines.none { it.contains("shuttle_name") })
+    }
+}
@@ -0,0 +1,58 @@
+package com.openlattice.shuttle.metrics
+
+import com.codahale.metrics.Counter
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Histogram
+import com.codahale.metrics.Meter
+import com.codahale.metrics.MetricFilter
+import com.codahale.metrics.ScheduledReporter
+import com.codahale.metrics.Timer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+class ShuttleMetricsTest {
+
+    private class RecordingReporter : ScheduledReporter(
+            ShuttleMetrics.registry,
+            "recording",
+            MetricFilter.ALL,
+            TimeUnit.SECONDS,
+            TimeUnit.MILLISECONDS
+    ) {
+        val counters = mutableListOf<SortedMap<String, Counter>>()
+
+        override fun report(
+                gauges: SortedMap<String, Gauge<*>>,
+                counters: SortedMap<String, Counter>,
+                histograms: SortedMap<String, Histogram>,
+                meters: SortedMap<String, Meter>,
+                timers: SortedMap<String, Timer>
+        ) {
+            this.counters.add(counters)
+        }
+    }
+
+    @Test
+    fun testAddedReporterReportsOnDemand() {
+        val reporter = RecordingReporter()
+        val name = ShuttleMetrics.tagged("reported", RUN_TAG to UUID.randomUUID().toString())
+        ShuttleMetrics.registry.counter(name).inc(3)
+
+        ShuttleMetrics.addReporter(reporter, 1, TimeUnit.HOURS)
+        ShuttleMetrics.report()
+
+        assertTrue(reporter.counters.isNotEmpty())
+        assertEquals(3L, reporter.counters.last().getValue(name).count)
+        ShuttleMetrics.registry.remove(name)
+    }
+
+    @Test
+    fun testTagsRoundTrip() {
+        val name = ShuttleMetrics.tagged("base", FLIGHT_TAG to "a{b}=c", RUN_TAG to "run")
+
+        assertEquals("base" to listOf(FLIGHT_TAG to "a_b__c", RUN_TAG to "run"), ShuttleMetrics.untagged(name))
+    }
+}
@@ -0,0 +1,84 @@
+package com.openlattice.shuttle.payload
+
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException
+import com.google.common.io.Resources
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.file.Paths
+
+class IndexedRowTest {
+
+    private val schema = RowSchema(listOf("algo", "mode", "keySize"))
+
+    @Test
+    fun testMapView() {
+        val row = schema.newRow(arrayOf("AES", "CTR", null))
+
+        assertEquals("AES", row["algo"])
+        assertEquals("CTR", row[1])
+        assertNull(row["keySize"])
+        assertNull(row["missing"])
+        assertTrue(row.containsKey("keySize"))
+        assertFalse(row.containsKey("missing"))
+        assertEquals(listOf("algo", "mode", "keySize"), row.keys.toList())
+        assertEquals(mapOf("algo" to "AES", "mode" to "CTR", "keySize" to null), row)
+        assertEquals(mapOf("algo" to "AES", "mode" to "CTR", "keySize" to null).hashCode(), row.hashCode())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testWrongWidth() {
+        schema.newRow(arrayOf("AES"))
+    }
+
+    @Test
+    fun testCsvPayloadEmitsIndexedRows() {
+        val path = Paths.get(Resources.getResource("cyphers.csv").toURI()).toString()
+        val rows = CsvPayload(path).getPayload().toList()
+
+        assertTrue(rows.isNotEmpty())
+        rows.forEach { row ->
+            assertTrue(row is IndexedRow)
+            assertEquals(setOf("algo", "mode", "keySize", "id"), row.keys)
+        }
+        assertEquals(mapOf("algo" to "AES", "mode" to "CTR", "keySize" to "128", "id" to "0"), rows.first())
+        assertTrue((rows.first() as IndexedRow).schema === (rows.last() as IndexedRow).schema)
+    }
+
+    private fun readCsv(contents: String): List<Map<String, Any?>> {
+        val file = File.createTempFile("shuttle", ".csv")
+        file.deleteOnExit()
+        file.writeText(contents)
+        return CsvPayload(file.path).getPayload().toList()
+    }
+
+    @Test
+    fun testCsvDuplicateColumnTakesLastCell() {
+        val rows = readCsv("id,name,id\n1,a,2\n")
+
+        assertEquals(listOf("id", "name"), rows.single().keys.toList())
+        assertEquals(mapOf("id" to "2", "name" to "a"), rows.single())
+    }
+
+    @Test
+    fun testCsvShortRowLeavesOutMissingColumns() {
+        val rows = readCsv("algo,mode,keySize\nAES,CTR,128\nDES\n")
+
+        assertEquals(mapOf("algo" to "AES", "mode" to "CTR", "keySize" to "128"), rows[0])
+        assertEquals(mapOf("algo" to "DES"), rows[1])
+        assertFalse(rows[1].containsKey("mode"))
+    }
+
+    @Test
+    fun testCsvTrailingCommaIsIgnored() {
+        assertEquals(mapOf("algo" to "AES", "mode" to "CTR"), readCsv("algo,mode\nAES,CTR,\n").single())
+    }
+
+    @Test(expected = RuntimeJsonMappingException::class)
+    fun testCsvOverlongRowIsRejected() {
+        readCsv("algo,mode\nAES,CTR,128\n")
+    }
+}
@@ -0,0 +1,35 @@
+package com.openlattice.shuttle.payload
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class JdbcPayloadTest {
+
+    @Test
+    fun testTopLevelOrderByIsOrdered() {
+        assertTrue(hasTopLevelOrderBy("SELECT * FROM people ORDER BY id"))
+        assertTrue(hasTopLevelOrderBy("select * from people order\n  by id desc limit 10;"))
+        assertTrue(hasTopLevelOrderBy("SELECT id FROM a UNION ALL SELECT id FROM b ORDER BY id"))
+        assertTrue(hasTopLevelOrderBy("SELECT * FROM (SELECT id FROM people) AS p ORDER BY p.id"))
+    }
+
+    @Test
+    fun testNestedOrderByIsNotOrdered() {
+        assertFalse(hasTopLevelOrderBy("SELECT * FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT * FROM (SELECT * FROM people ORDER BY id) AS p"))
+        assertFalse(hasTopLevelOrderBy("SELECT id, row_number() OVER (ORDER BY id) FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT string_agg(name, ',' ORDER BY name) FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT * FROM border_crossings"))
+    }
+
+    @Test
+    fun testLiteralsAndCommentsAreSkipped() {
+        assertFalse(hasTopLevelOrderBy("SELECT 'order by id' AS note FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT 'it''s ORDER BY' FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT \"order by\" FROM people"))
+        assertFalse(hasTopLevelOrderBy("SELECT * FROM people -- ORDER BY id"))
+        assertFalse(hasTopLevelOrderBy("SELECT * FROM people /* ORDER BY id */"))
+        assertTrue(hasTopLevelOrderBy("SELECT ')' FROM people ORDER BY id"))
+    }
+}
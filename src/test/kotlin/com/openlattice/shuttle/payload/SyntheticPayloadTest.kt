@@ -0,0 +1,43 @@
+package com.openlattice.shuttle.payload
+
+import org.junit.Assert
+import org.junit.Test
+
+class SyntheticPayloadTest {
+
+    @Test
+    fun testParseColumns() {
+        val columns = SyntheticColumn.parse("id:integer,name:string:5000:12,flag")
+
+        Assert.assertEquals(
+                listOf(
+                        SyntheticColumn("id", SyntheticType.INTEGER),
+                        SyntheticColumn("name", SyntheticType.STRING, 5000, 12),
+                        SyntheticColumn("flag")
+                ),
+                columns
+        )
+    }
+
+    @Test
+    fun testRowsAreDeterministic() {
+        val columns = SyntheticColumn.parse("id:integer,name:string:100:8,dob:date,active:boolean")
+        val first = SyntheticPayload(columns, 1_000, 42).getPayload().toList()
+        val second = SyntheticPayload(columns, 1_000, 42).getPayload().toList()
+
+        Assert.assertEquals(1_000, first.size)
+        Assert.assertEquals(first, second)
+        Assert.assertEquals(first.drop(250), SyntheticPayload(columns, 1_000, 42).getPayload(250).toList())
+        Assert.assertTrue(first.all { (it["name"] as String).length == 8 })
+    }
+
+    @Test
+    fun testCardinality() {
+        val payload = SyntheticPayload(SyntheticColumn.parse("id:integer,name:string:10"), 10_000)
+        val rows = payload.getPayload().toList()
+
+        Assert.assertTrue(rows.map { it["name"] }.toSet().size <= 10)
+        Assert.assertEquals(10_000, rows.map { it["id"] }.toSet().size)
+        Assert.assertEquals(10_000L, payload.rowsGenerated)
+    }
+}
@@ -0,0 +1,51 @@
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import com.openlattice.shuttle.metrics.FLIGHT_TAG
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AdaptiveBatchSizerTest {
+
+    private fun sizer(headroom: Double = 1.0) = AdaptiveBatchSizer(
+            10_000, 1_000, 100_000, 1_000, 0.2, MetricRegistry(), listOf(FLIGHT_TAG to "test")
+    ) { headroom }
+
+    @Test
+    fun testGrowsWhenBatchesAreFast() {
+        val sizer = sizer()
+        sizer.observe(10_000, 100)
+        assertEquals(15_000, sizer.nextSize())
+    }
+
+    @Test
+    fun testShrinksWhenBatchesAreSlow() {
+        val sizer = sizer()
+        sizer.observe(10_000, 10_000)
+        assertEquals(7_500, sizer.nextSize())
+    }
+
+    @Test
+    fun testConvergesToTargetLatency() {
+        val sizer = sizer()
+        repeat(20) { sizer.observe(sizer.nextSize(), sizer.nextSize() / 20L) }
+        assertTrue(sizer.nextSize() in 19_000..21_000)
+    }
+
+    @Test
+    fun testShrinksWhenHeapIsLow() {
+        val sizer = sizer(0.1)
+        sizer.observe(10_000, 100)
+        assertEquals(5_000, sizer.nextSize())
+    }
+
+    @Test
+    fun testStaysWithinBounds() {
+        val sizer = sizer()
+        repeat(20) { sizer.observe(sizer.nextSize(), 1) }
+        assertEquals(100_000, sizer.nextSize())
+        repeat(20) { sizer.observe(sizer.nextSize(), 1_000_000) }
+        assertEquals(1_000, sizer.nextSize())
+    }
+}
@@ -0,0 +1,99 @@
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.MoreExecutors
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ExecutionRuntimeTest {
+
+    @Test
+    fun testQuotaIsShareOfPool() {
+        ExecutionRuntime(4, 8, 0.5).use { runtime ->
+            assertEquals(2, runtime.quota(runtime.transformThreads))
+            assertEquals(4, runtime.quota(runtime.ioThreads))
+            assertEquals(1, runtime.quota(1))
+        }
+        ExecutionRuntime(4, 8).use { runtime ->
+            assertEquals(8, runtime.quota(runtime.ioThreads))
+        }
+    }
+
+    @Test
+    fun testVirtualThreadsFallBackToPlatformPools() {
+        ExecutionRuntime(1, 2, virtualThreads = true).use { runtime ->
+            val virtualThreadsAvailable = try {
+                Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor")
+                true
+            } catch (ex: NoSuchMethodException) {
+                false
+            }
+            if (!virtualThreadsAvailable) {
+                assertFalse(runtime.usesVirtualThreads)
+            }
+            assertEquals(2, runtime.quota(runtime.ioThreads))
+            assertEquals(4, runtime.uploadExecutor.submit(Callable { 2 + 2 }).get(5, TimeUnit.SECONDS))
+        }
+    }
+
+    @Test
+    fun testLimitedExecutorRunsAtMostPermitsTasks() {
+        val delegate = Executors.newCachedThreadPool()
+        val limited = MoreExecutors.listeningDecorator(ConcurrencyLimitedExecutorService(delegate, 2))
+        val running = AtomicInteger()
+        val peak = AtomicInteger()
+
+        val futures = List(20) {
+            limited.submit(Callable {
+                peak.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                Thread.sleep(5)
+                running.decrementAndGet()
+            })
+        }
+        futures.forEach { it.get(5, TimeUnit.SECONDS) }
+        delegate.shutdown()
+
+        assertTrue(peak.get() in 1..2)
+    }
+
+    @Test
+    fun testMemoryBudgetIsShareOfHeap() {
+        ExecutionRuntime(1, 2, memoryBudgetFraction = 0.25).use { runtime ->
+            assertEquals((Runtime.getRuntime().maxMemory() * 0.25).toLong(), runtime.memoryBudget.capacityBytes)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testJobShareMustBePositive() {
+        ExecutionRuntime(4, 8, 0.0)
+    }
+
+    @Test
+    fun testStagesShareRuntimePool() {
+        ExecutionRuntime(1, 2).use { runtime ->
+            val first = PipelineStage("first", runtime.uploadExecutor, 1, MetricRegistry())
+            val second = PipelineStage("second", runtime.uploadExecutor, 1, MetricRegistry())
+            val release = CountDownLatch(1)
+            val running = CountDownLatch(2)
+
+            val futures = listOf(first, second).map { stage ->
+                stage.submit {
+                    running.countDown()
+                    release.await()
+                }
+            }
+
+            assertTrue(running.await(5, TimeUnit.SECONDS))
+            assertFalse(futures.any { it.isDone })
+            release.countDown()
+            futures.forEach { it.get(5, TimeUnit.SECONDS) }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.openlattice.shuttle.pipeline
+
+import com.codahale.metrics.MetricRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class MemoryBudgetTest {
+
+    @Test
+    fun testReserveBlocksUntilReleased() {
+        val budget = MemoryBudget(100, MetricRegistry())
+        val first = budget.reserve(80)
+        val admitted = CountDownLatch(1)
+
+        val waiter = Thread {
+            budget.reserve(40)
+            admitted.countDown()
+        }
+        waiter.start()
+
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS))
+        first.resize(60)
+        assertTrue(admitted.await(5, TimeUnit.SECONDS))
+        waiter.join()
+    }
+
+    @Test
+    fun testOversizedReservationIsCapped() {
+        val budget = MemoryBudget(100, MetricRegistry())
+        val reservation = budget.reserve(1_000)
+        assertEquals(100, reservation.bytes)
+        reservation.close()
+        assertEquals(0, reservation.bytes)
+        budget.reserve(100).close()
+    }
+
+    @Test
+    fun testSharedReservationIsCountedOnceAndReleasedByLastHolder() {
+        val budget = MemoryBudget(100, MetricRegistry())
+        val shared = SharedReservation(budget.reserve(60), 3)
+        val other = budget.reserve(40)
+
+        shared.release()
+        shared.release()
+        val admitted = CountDownLatch(1)
+        val waiter = Thread {
+            budget.reserve(60)
+            admitted.countDown()
+        }
+        waiter.start()
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS))
+
+        shared.release()
+        assertTrue(admitted.await(5, TimeUnit.SECONDS))
+        waiter.join()
+        other.close()
+    }
+
+    @Test
+    fun testRowEstimateGrowsWithContent() {
+        val narrow = List(1_000) { mapOf("id" to "$it") }
+        val wide = List(1_000) { mapOf("id" to "$it", "photo" to ByteArray(10_000)) }
+
+        assertTrue(MemoryEstimator.estimateRows(wide) > 1_000L * 10_000)
+        assertTrue(MemoryEstimator.estimateRows(narrow) < MemoryEstimator.estimateRows(wide) / 100)
+    }
+}